@@ -0,0 +1,211 @@
+package benchmark;
+
+import config.CostMatrix;
+import config.FileHandler;
+import config.SimulationConfig;
+import simulation.Patrol;
+import simulation.Simulation;
+import simulation.SimulationContext;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Benchmarks dos caminhos críticos da simulação, compilados à parte do projeto (diretório bench/).
+ * Para cada combinação de parâmetros mede:
+ *  - eventos por segundo do motor de eventos discretos (Simulation.runUntil), que exercita
+ *    reproduce, mutate e triggerEpidemic;
+ *  - nanossegundos por passo do modo de passo fixo (Simulation.runSimulation);
+ *  - nanossegundos por cálculo do conforto (Patrol.getComfort com a cache invalidada, o que recalcula também as taxas);
+ *  - bytes alocados por evento, medidos através do ThreadMXBean da JVM;
+ *  - débito de leitura do FileHandler em MB/s.
+ * Os resultados são escritos em JSON para comparação entre versões.
+ *
+ * Compilação e execução (a partir da raiz do repositório), com as classes de incubator/:
+ *   javac --add-modules jdk.incubator.vector,jdk.incubator.foreign -d out $(find src incubator bench -name '*.java')
+ *   java --add-modules jdk.incubator.vector -cp out benchmark.SimulationBenchmark -n 10,100 -m 1000 -vmax 500 -mu 1 -rho 1 -delta 1 -json results.json
+ * Cada opção aceita uma lista de valores separados por vírgulas; é medido o produto cartesiano.
+ * Sem incubator/ (javac -d out $(find src bench -name '*.java')) ou sem --add-modules na execução,
+ * as passagens pela população inteira usam a versão escalar de RateKernel.
+ */
+public class SimulationBenchmark {
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASURE_ITERATIONS = 5;
+
+    // Evita que o JIT elimine cálculos cujo resultado não é usado.
+    private static double blackhole;
+
+    public static void main(String[] args) throws IOException {
+        List<Integer> ns = List.of(10);
+        List<Integer> ms = List.of(1000);
+        List<Integer> vs = List.of(10);
+        List<Integer> vmaxs = List.of(200);
+        List<Double> mus = List.of(1.0);
+        List<Double> rhos = List.of(1.0);
+        List<Double> deltas = List.of(1.0);
+        double tau = 100;
+        String jsonPath = "benchmark-results.json";
+
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "-n": ns = parseInts(value); break;
+                case "-m": ms = parseInts(value); break;
+                case "-v": vs = parseInts(value); break;
+                case "-vmax": vmaxs = parseInts(value); break;
+                case "-mu": mus = parseDoubles(value); break;
+                case "-rho": rhos = parseDoubles(value); break;
+                case "-delta": deltas = parseDoubles(value); break;
+                case "-tau": tau = Double.parseDouble(value); break;
+                case "-json": jsonPath = value; break;
+                default:
+                    System.out.println("Unknown option: " + args[i]);
+                    return;
+            }
+        }
+
+        List<String> results = new ArrayList<>();
+        for (int n : ns) for (int m : ms) for (int v : vs) for (int vmax : vmaxs)
+            for (double mu : mus) for (double rho : rhos) for (double delta : deltas) {
+                SimulationConfig config = new SimulationConfig(n, m, tau, v, vmax, mu, rho, delta);
+                String result = measure(config);
+                System.out.println(result);
+                results.add(result);
+            }
+
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Path.of(jsonPath)))) {
+            out.println("[");
+            out.println("  " + String.join(",\n  ", results));
+            out.println("]");
+        }
+        System.out.println("Results written to " + jsonPath);
+    }
+
+    private static String measure(SimulationConfig config) throws IOException {
+        CostMatrix costs = config.getCostMatrix();
+        double tau = config.getFinalTime();
+
+        // Motor de eventos discretos: eventos por segundo e bytes alocados por evento.
+        double eventsPerSecond = 0, bytesPerEvent = 0;
+        for (int it = 0; it < WARMUP_ITERATIONS + MEASURE_ITERATIONS; it++) {
+            Simulation simulation = newSimulation(config, costs, 1000);
+            long allocated = allocatedBytes();
+            long start = System.nanoTime();
+            simulation.runUntil(tau);
+            long elapsed = System.nanoTime() - start;
+            allocated = allocatedBytes() - allocated;
+            long events = Math.max(1, simulation.getEventCount());
+            if (it >= WARMUP_ITERATIONS) {
+                eventsPerSecond += events * 1e9 / elapsed / MEASURE_ITERATIONS;
+                bytesPerEvent += (double) allocated / events / MEASURE_ITERATIONS;
+            }
+        }
+
+        // Modo de passo fixo: nanossegundos por passo.
+        double nsPerStep = 0;
+        for (int it = 0; it < WARMUP_ITERATIONS + MEASURE_ITERATIONS; it++) {
+            Simulation simulation = newSimulation(config, costs, (int) Math.max(1, tau));
+            long start = System.nanoTime();
+            simulation.runSimulation();
+            long elapsed = System.nanoTime() - start;
+            if (it >= WARMUP_ITERATIONS) {
+                nsPerStep += elapsed / Math.max(1.0, simulation.getCurrentTime()) / MEASURE_ITERATIONS;
+            }
+        }
+
+        // Patrol.getComfort sobre a população inicial. Repor o tmin invalida a cache de todas as patrulhas,
+        // para que cada chamada meça o cálculo e não apenas a leitura do valor guardado.
+        Simulation comfortSimulation = newSimulation(config, costs, 1);
+        SimulationContext context = comfortSimulation.getContext();
+        double tmin = context.getTmin();
+        List<Patrol> patrols = comfortSimulation.getPatrols();
+        int calls = 0;
+        long comfortStart = 0;
+        for (int it = 0; it < WARMUP_ITERATIONS + MEASURE_ITERATIONS; it++) {
+            if (it == WARMUP_ITERATIONS) {
+                comfortStart = System.nanoTime();
+                calls = 0;
+            }
+            for (int r = 0; r < 100_000; r++) {
+                context.setTmin(tmin);
+                for (Patrol patrol : patrols) {
+                    blackhole += patrol.getComfort();
+                    calls++;
+                }
+            }
+        }
+        double nsPerComfort = (double) (System.nanoTime() - comfortStart) / calls;
+
+        // FileHandler: débito de leitura do formato de texto.
+        Path file = Files.createTempFile("benchmark", ".txt");
+        double parseMbPerSecond = 0;
+        try {
+            writeTextConfig(config, file);
+            long bytes = Files.size(file);
+            for (int it = 0; it < WARMUP_ITERATIONS + MEASURE_ITERATIONS; it++) {
+                long start = System.nanoTime();
+                blackhole += FileHandler.readConfigFromFile(file.toString()).getMatrixC(0, 0);
+                long elapsed = System.nanoTime() - start;
+                if (it >= WARMUP_ITERATIONS) {
+                    parseMbPerSecond += bytes / 1e6 / (elapsed / 1e9) / MEASURE_ITERATIONS;
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+
+        return String.format(Locale.ROOT,
+                "{\"n\": %d, \"m\": %d, \"v\": %d, \"vmax\": %d, \"mu\": %s, \"rho\": %s, \"delta\": %s, \"tau\": %s, "
+                        + "\"eventsPerSecond\": %.1f, \"bytesPerEvent\": %.1f, \"nsPerStep\": %.1f, "
+                        + "\"nsPerComfort\": %.2f, \"parseMBPerSecond\": %.1f}",
+                config.getNumPatrols(), config.getNumPlanetarySystems(), config.getInitialPopulation(),
+                config.getMaxPopulation(), config.getDeathRate(), config.getReproductionRate(),
+                config.getMutationRate(), tau, eventsPerSecond, bytesPerEvent, nsPerStep, nsPerComfort, parseMbPerSecond);
+    }
+
+    private static Simulation newSimulation(SimulationConfig config, CostMatrix costs, int maxSteps) {
+        return new Simulation(maxSteps, config.getMaxPopulation(), config.getDeathRate(),
+                config.getReproductionRate(), config.getMutationRate(), costs);
+    }
+
+    private static void writeTextConfig(SimulationConfig config, Path file) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file))) {
+            out.println(config.getNumPatrols() + " " + config.getNumPlanetarySystems() + " " + config.getFinalTime() + " "
+                    + config.getInitialPopulation() + " " + config.getMaxPopulation() + " " + config.getDeathRate() + " "
+                    + config.getReproductionRate() + " " + config.getMutationRate());
+            for (int i = 0; i < config.getNumPatrols(); i++) {
+                StringBuilder row = new StringBuilder();
+                for (int j = 0; j < config.getNumPlanetarySystems(); j++) {
+                    row.append(config.getMatrixC(i, j)).append(' ');
+                }
+                out.println(row);
+            }
+        }
+    }
+
+    /**
+     * Bytes alocados pela thread atual desde o arranque da JVM.
+     */
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static List<Integer> parseInts(String value) {
+        List<Integer> list = new ArrayList<>();
+        for (String part : value.split(",")) list.add(Integer.parseInt(part.trim()));
+        return list;
+    }
+
+    private static List<Double> parseDoubles(String value) {
+        List<Double> list = new ArrayList<>();
+        for (String part : value.split(",")) list.add(Double.parseDouble(part.trim()));
+        return list;
+    }
+}
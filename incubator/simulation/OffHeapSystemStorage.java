@@ -0,0 +1,189 @@
+package simulation;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import jdk.incubator.foreign.MemoryAccess;
+import jdk.incubator.foreign.MemorySegment;
+import jdk.incubator.foreign.ResourceScope;
+
+/**
+ * Versão de SystemStorage fora do heap, com a API de memória externa (módulo de incubação jdk.incubator.foreign).
+ * A memória é pedida em blocos grandes a um ResourceScope com a duração da execução e dividida em blocos
+ * de 8 * 2^k posições. Os blocos libertados voltam para uma lista por tamanho e são reaproveitados, pelo que,
+ * depois do aquecimento, as patrulhas crescem e encolhem sem alocar nem memória nativa nem objetos no heap.
+ * A memória só é devolvida ao sistema quando close() fecha o scope, no fim da execução.
+ * Fica fora de src/ (diretório incubator/), compilada com --add-modules jdk.incubator.foreign e carregada
+ * por reflexão só quando o módulo está presente; ver SystemStorage.create().
+ */
+final class OffHeapSystemStorage extends SystemStorage {
+    // Posições pedidas de cada vez ao scope (4 MiB); blocos maiores são pedidos diretamente.
+    private static final int CHUNK = 1 << 20;
+
+    // Scope partilhado: a simulação pode ser criada numa thread e executada noutra (réplicas, ilhas).
+    private final ResourceScope scope = ResourceScope.newSharedScope();
+
+    // Parte ainda livre do último bloco grande pedido ao scope.
+    private MemorySegment chunk;
+    private long chunkUsed;
+
+    // Blocos libertados, por classe de tamanho (8 * 2^k posições).
+    private final OffHeapBlock[][] free = new OffHeapBlock[Integer.SIZE][];
+    private final int[] freeCount = new int[Integer.SIZE];
+
+    // Blocos largados enquanto um instantâneo os partilhava, à espera de que a escrita termine.
+    private OffHeapBlock[] retired = new OffHeapBlock[16];
+    private int retiredCount;
+
+    @Override
+    Simulation.Storage getType() {
+        return Simulation.Storage.OFF_HEAP;
+    }
+
+    @Override
+    Block allocate(int capacity) {
+        int sizeClass = sizeClass(capacity);
+        if (freeCount[sizeClass] > 0) {
+            OffHeapBlock block = free[sizeClass][--freeCount[sizeClass]];
+            free[sizeClass][freeCount[sizeClass]] = null;
+            return block;
+        }
+        return carve(8L << sizeClass);
+    }
+
+    @Override
+    void release(Block block) {
+        OffHeapBlock offHeap = (OffHeapBlock) block;
+        int sizeClass = sizeClass(offHeap.capacity);
+        OffHeapBlock[] list = free[sizeClass];
+        if (list == null) {
+            list = free[sizeClass] = new OffHeapBlock[16];
+        } else if (freeCount[sizeClass] == list.length) {
+            list = free[sizeClass] = Arrays.copyOf(list, list.length * 2);
+        }
+        list[freeCount[sizeClass]++] = offHeap;
+    }
+
+    @Override
+    void retire(Block block) {
+        if (retiredCount == retired.length) {
+            retired = Arrays.copyOf(retired, retiredCount * 2);
+        }
+        retired[retiredCount++] = (OffHeapBlock) block;
+    }
+
+    @Override
+    void releaseRetired() {
+        for (int i = 0; i < retiredCount; i++) {
+            release(retired[i]);
+            retired[i] = null;
+        }
+        retiredCount = 0;
+    }
+
+    @Override
+    public void close() {
+        scope.close();
+    }
+
+    /**
+     * Menor k tal que 8 * 2^k >= capacity.
+     */
+    private static int sizeClass(int capacity) {
+        return Math.max(0, Integer.SIZE - Integer.numberOfLeadingZeros(Math.max(capacity, 8) - 1) - 3);
+    }
+
+    /**
+     * Retira um bloco novo de positions posições do bloco grande atual, pedindo outro se não houver espaço.
+     */
+    private OffHeapBlock carve(long positions) {
+        long bytes = positions * Integer.BYTES;
+        if (positions >= CHUNK) {
+            return new OffHeapBlock(MemorySegment.allocateNative(bytes, Integer.BYTES, scope));
+        }
+        if (chunk == null || chunk.byteSize() - chunkUsed < bytes) {
+            recycleChunkRemainder();
+            chunk = MemorySegment.allocateNative((long) CHUNK * Integer.BYTES, Integer.BYTES, scope);
+            chunkUsed = 0;
+        }
+        MemorySegment segment = chunk.asSlice(chunkUsed, bytes);
+        chunkUsed += bytes;
+        return new OffHeapBlock(segment);
+    }
+
+    /**
+     * Divide o que sobra do bloco grande atual em blocos livres, para que não seja desperdiçado.
+     * Como o bloco grande e todos os blocos têm tamanhos potência de 2, o resto é sempre múltiplo de 8 posições.
+     */
+    private void recycleChunkRemainder() {
+        if (chunk == null) return;
+        long remaining = (chunk.byteSize() - chunkUsed) / Integer.BYTES;
+        while (remaining >= 8) {
+            long positions = Long.highestOneBit(remaining);
+            release(new OffHeapBlock(chunk.asSlice(chunkUsed, positions * Integer.BYTES)));
+            chunkUsed += positions * Integer.BYTES;
+            remaining -= positions;
+        }
+    }
+
+    private static final class OffHeapBlock extends Block {
+        private final MemorySegment segment;
+        private final int capacity;
+
+        OffHeapBlock(MemorySegment segment) {
+            this.segment = segment;
+            this.capacity = (int) (segment.byteSize() / Integer.BYTES);
+        }
+
+        @Override
+        int capacity() {
+            return capacity;
+        }
+
+        @Override
+        int get(int index) {
+            return MemoryAccess.getIntAtIndex(segment, index);
+        }
+
+        @Override
+        void set(int index, int system) {
+            MemoryAccess.setIntAtIndex(segment, index, system);
+        }
+
+        @Override
+        void copyFrom(Block source, int sourceIndex, int index, int length) {
+            long bytes = (long) length * Integer.BYTES;
+            MemorySegment target = segment.asSlice((long) index * Integer.BYTES, bytes);
+            int[] array = source.array();
+            if (source instanceof OffHeapBlock) {
+                target.copyFrom(((OffHeapBlock) source).segment.asSlice((long) sourceIndex * Integer.BYTES, bytes));
+            } else if (array != null) {
+                target.copyFrom(MemorySegment.ofArray(array).asSlice((long) sourceIndex * Integer.BYTES, bytes));
+            } else {
+                for (int i = 0; i < length; i++) {
+                    MemoryAccess.setIntAtIndex(segment, index + i, source.get(sourceIndex + i));
+                }
+            }
+        }
+
+        @Override
+        void writeTo(ByteBuffer target, int index, int length) {
+            if (target.order() == ByteOrder.nativeOrder() && target.isDirect()) {
+                // Cópia em bloco: a memória do bloco já está na ordem de bytes pedida.
+                long bytes = (long) length * Integer.BYTES;
+                MemorySegment.ofByteBuffer(target).asSlice(0, bytes)
+                        .copyFrom(segment.asSlice((long) index * Integer.BYTES, bytes));
+                target.position(target.position() + (int) bytes);
+            } else {
+                for (int i = 0; i < length; i++) {
+                    target.putInt(MemoryAccess.getIntAtIndex(segment, index + i));
+                }
+            }
+        }
+
+        @Override
+        int[] array() {
+            return null;
+        }
+    }
+}
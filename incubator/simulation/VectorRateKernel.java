@@ -0,0 +1,46 @@
+package simulation;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Versão de RateKernel com a Vector API (módulo de incubação jdk.incubator.vector).
+ * Avalia tantas patrulhas de cada vez quantas couberem num registo vetorial da máquina;
+ * as restantes posições são tratadas pela versão escalar.
+ * Fica fora de src/ (diretório incubator/), compilada com --add-modules jdk.incubator.vector e carregada
+ * por reflexão só quando o módulo está presente; ver RateKernel.instance().
+ */
+final class VectorRateKernel extends RateKernel {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    boolean isVectorized() {
+        return true;
+    }
+
+    @Override
+    void evaluate(double[] totals, int n, double tmin, double mu, double rho, double delta,
+                  double[] comfort, double[] death, double[] reproduction, double[] mutation) {
+        DoubleVector one = DoubleVector.broadcast(SPECIES, 1);
+        DoubleVector minimum = DoubleVector.broadcast(SPECIES, tmin);
+        int bound = SPECIES.loopBound(n);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector total = DoubleVector.fromArray(SPECIES, totals, i);
+            VectorMask<Double> empty = total.eq(0);
+            // Se não há tempo de patrulha, conforto é máximo.
+            DoubleVector c = minimum.div(total).blend(one, empty);
+            c.intoArray(comfort, i);
+
+            // exp(-mu * (1 - log(1 - c))), pela mesma ordem de operações de Patrol.
+            one.sub(one.sub(c).lanewise(VectorOperators.LOG)).mul(-mu)
+                    .lanewise(VectorOperators.EXP).intoArray(death, i);
+            DoubleVector oneMinusLog = one.sub(c.lanewise(VectorOperators.LOG));
+            oneMinusLog.mul(-rho).lanewise(VectorOperators.EXP).intoArray(reproduction, i);
+            oneMinusLog.mul(-delta).lanewise(VectorOperators.EXP).intoArray(mutation, i);
+        }
+        evaluateScalar(totals, i, n, tmin, mu, rho, delta, comfort, death, reproduction, mutation);
+    }
+}
@@ -0,0 +1,32 @@
+package config;
+
+import java.io.IOException;
+
+/**
+ * Erro de leitura do ficheiro de configuração, com a linha e a coluna onde o problema foi encontrado.
+ */
+public class ConfigParseException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final long line;
+    private final long column;
+
+    /**
+     * @param message Descrição do problema.
+     * @param line Linha do ficheiro (a começar em 1), ou 0 se não se aplicar (formato binário).
+     * @param column Coluna da linha (a começar em 1), ou a posição em bytes no formato binário.
+     */
+    public ConfigParseException(String message, long line, long column) {
+        super(line > 0 ? message + " at line " + line + ", column " + column : message + " at byte " + column);
+        this.line = line;
+        this.column = column;
+    }
+
+    public long getLine() {
+        return line;
+    }
+
+    public long getColumn() {
+        return column;
+    }
+}
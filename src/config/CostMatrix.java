@@ -0,0 +1,121 @@
+package config;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * Matriz C de custos: o tempo que a patrulha i leva a pacificar o sistema planetário j.
+ * Os valores são guardados num único bloco em ordem de linha (row-major), de forma a que
+ * os custos de uma mesma patrulha fiquem contíguos em memória. O bloco pode ser um array
+ * primitivo no heap ou um buffer fora do heap (direto ou mapeado a partir de um ficheiro).
+ */
+public class CostMatrix {
+    private final int rows;
+    private final int columns;
+    private final int[] values; // Valores no heap, ou null quando a matriz está fora do heap.
+    private final IntBuffer offHeapValues; // Valores fora do heap, ou null quando a matriz está no heap.
+
+    /**
+     * Cria uma matriz de custos preenchida com zeros.
+     * @param rows Número de patrulhas (n).
+     * @param columns Número de sistemas planetários (m).
+     */
+    public CostMatrix(int rows, int columns) {
+        if (rows <= 0 || columns <= 0) {
+            throw new IllegalArgumentException("Matrix dimensions must be positive: " + rows + "x" + columns);
+        }
+        if ((long) rows * columns > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Matrix of " + rows + "x" + columns + " is too large to allocate");
+        }
+        this.rows = rows;
+        this.columns = columns;
+        this.values = new int[rows * columns];
+        this.offHeapValues = null;
+    }
+
+    private CostMatrix(int rows, int columns, IntBuffer offHeapValues) {
+        this.rows = rows;
+        this.columns = columns;
+        this.values = null;
+        this.offHeapValues = offHeapValues;
+    }
+
+    /**
+     * Cria uma matriz preenchida com zeros num buffer direto, fora do heap.
+     * @param rows Número de patrulhas (n).
+     * @param columns Número de sistemas planetários (m).
+     */
+    public static CostMatrix offHeap(int rows, int columns) {
+        if (rows <= 0 || columns <= 0) {
+            throw new IllegalArgumentException("Matrix dimensions must be positive: " + rows + "x" + columns);
+        }
+        // Um buffer direto é indexado por int, por isso o limite é de 2 GB
+        if ((long) rows * columns * Integer.BYTES > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Matrix of " + rows + "x" + columns + " is too large to map");
+        }
+        return new CostMatrix(rows, columns, ByteBuffer.allocateDirect(rows * columns * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer());
+    }
+
+    /**
+     * Usa diretamente um buffer já preenchido (por exemplo, uma região de um ficheiro mapeado), sem copiar.
+     * @param rows Número de patrulhas (n).
+     * @param columns Número de sistemas planetários (m).
+     * @param values Buffer com pelo menos rows * columns valores em ordem de linha.
+     */
+    public static CostMatrix wrap(int rows, int columns, IntBuffer values) {
+        if (values.remaining() < (long) rows * columns) {
+            throw new IllegalArgumentException("Buffer holds " + values.remaining() + " values, expected " + (long) rows * columns);
+        }
+        return new CostMatrix(rows, columns, values.slice());
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    /**
+     * Retorna o custo da patrulha row para o sistema column.
+     */
+    public int get(int row, int column) {
+        int index = row * columns + column;
+        return values != null ? values[index] : offHeapValues.get(index);
+    }
+
+    /**
+     * Define o custo da patrulha row para o sistema column.
+     */
+    public void set(int row, int column, int value) {
+        int index = row * columns + column;
+        if (values != null) {
+            values[index] = value;
+        } else {
+            offHeapValues.put(index, value);
+        }
+    }
+
+    /**
+     * Atualiza minima[j] com o mínimo entre o valor atual e C[row][j], para j em [from, to).
+     * Percorre a linha de forma contígua, o que permite ao compilador JIT vetorizar o ciclo no caso do heap.
+     * @param row Linha da matriz.
+     * @param from Primeira coluna (inclusive).
+     * @param to Última coluna (exclusive).
+     * @param minima Mínimos a atualizar, um por coluna.
+     */
+    public void minInto(int row, int from, int to, int[] minima) {
+        int base = row * columns;
+        if (values != null) {
+            for (int j = from; j < to; j++) {
+                minima[j] = Math.min(minima[j], values[base + j]);
+            }
+        } else {
+            for (int j = from; j < to; j++) {
+                minima[j] = Math.min(minima[j], offHeapValues.get(base + j));
+            }
+        }
+    }
+}
@@ -1,41 +1,295 @@
 package config;
 
-import java.io.File;
 import java.io.FileNotFoundException;
-import java.util.Scanner;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
+/**
+ * Leitura e escrita dos ficheiros de configuração da simulação.
+ * O ficheiro é mapeado em memória através de um FileChannel e os números são lidos diretamente
+ * dos bytes. São aceites dois formatos: o formato de texto original (parâmetros seguidos da matriz C)
+ * e um formato binário compacto, cuja matriz é usada diretamente a partir do ficheiro mapeado.
+ */
 public class FileHandler {
-    public static SimulationConfig readConfigFromFile(String filePath) {
+    // Assinatura do formato binário: os bytes "POOC" no início do ficheiro.
+    private static final byte[] BINARY_MAGIC = {'P', 'O', 'O', 'C'};
+    private static final int BINARY_VERSION = 1;
+    // magic, versão, n, m, τ, ν, νmax, µ, ρ, δ
+    private static final int BINARY_HEADER_BYTES = 4 + 4 + 4 + 4 + 8 + 4 + 4 + 8 + 8 + 8;
+
+    public static SimulationConfig readConfigFromFile(String filePath) throws IOException {
+        return readConfigFromFile(filePath, false);
+    }
+
+    /**
+     * Lê a configuração de um ficheiro de texto ou binário (detetado pela assinatura).
+     * @param filePath Caminho do ficheiro.
+     * @param offHeap Se true, a matriz C de um ficheiro de texto é guardada fora do heap.
+     *                A matriz de um ficheiro binário fica sempre mapeada a partir do próprio ficheiro.
+     * @return A configuração lida.
+     * @throws ConfigParseException Se o conteúdo for inválido (com linha e coluna do erro).
+     * @throws IOException Se o ficheiro não puder ser lido.
+     */
+    public static SimulationConfig readConfigFromFile(String filePath, boolean offHeap) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            if (channel.size() == 0) {
+                throw new ConfigParseException("Empty configuration file", 1, 1);
+            }
+            if (isBinary(channel)) {
+                return readBinary(channel);
+            }
+            return readText(channel, offHeap);
+        } catch (NoSuchFileException e) {
+            throw new FileNotFoundException("File not found: " + filePath);
+        }
+    }
+
+    private static SimulationConfig readText(FileChannel channel, boolean offHeap) throws IOException {
+        MappedTextReader reader = new MappedTextReader(channel);
+
+        // Leitura dos parâmetros básicos do arquivo
+        int n = reader.nextInt("n");
+        int m = reader.nextInt("m");
+        double tau = reader.nextDouble("τ");
+        int v = reader.nextInt("ν");
+        int vmax = reader.nextInt("νmax");
+        double mu = reader.nextDouble("µ");
+        double rho = reader.nextDouble("ρ");
+        double delta = reader.nextDouble("δ");
+        if (n <= 0 || m <= 0) {
+            throw new ConfigParseException("Matrix dimensions must be positive: " + n + "x" + m, 1, 1);
+        }
+        // Um array Java e um buffer mapeado têm índices int: o limite é em células ou em bytes
+        long matrixSize = (long) n * m * (offHeap ? Integer.BYTES : 1);
+        if (matrixSize > Integer.MAX_VALUE) {
+            throw new ConfigParseException("Matrix of " + n + "x" + m + " is too large to "
+                    + (offHeap ? "map" : "allocate"), 1, 1);
+        }
+
+        // Criação e preenchimento da matriz C
+        CostMatrix matrixC = offHeap ? CostMatrix.offHeap(n, m) : new CostMatrix(n, m);
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < m; j++) {
+                matrixC.set(i, j, reader.nextMatrixValue(i, j));
+            }
+        }
+
+        // Criação da configuração de simulação com os valores lidos
+        return new SimulationConfig(n, m, tau, v, vmax, mu, rho, delta, matrixC);
+    }
+
+    private static boolean isBinary(FileChannel channel) throws IOException {
+        if (channel.size() < BINARY_MAGIC.length) return false;
+        ByteBuffer magic = ByteBuffer.allocate(BINARY_MAGIC.length);
+        channel.read(magic, 0);
+        for (int i = 0; i < BINARY_MAGIC.length; i++) {
+            if (magic.get(i) != BINARY_MAGIC[i]) return false;
+        }
+        return true;
+    }
+
+    private static SimulationConfig readBinary(FileChannel channel) throws IOException {
+        if (channel.size() < BINARY_HEADER_BYTES) {
+            throw new ConfigParseException("Truncated binary header", 0, channel.size());
+        }
+        ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, BINARY_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.position(BINARY_MAGIC.length);
+        int version = header.getInt();
+        if (version != BINARY_VERSION) {
+            throw new ConfigParseException("Unsupported binary format version " + version, 0, 4);
+        }
+        int n = header.getInt();
+        int m = header.getInt();
+        double tau = header.getDouble();
+        int v = header.getInt();
+        int vmax = header.getInt();
+        double mu = header.getDouble();
+        double rho = header.getDouble();
+        double delta = header.getDouble();
+        if (n <= 0 || m <= 0) {
+            throw new ConfigParseException("Matrix dimensions must be positive: " + n + "x" + m, 0, 8);
+        }
+
+        long matrixBytes = (long) n * m * Integer.BYTES;
+        if (matrixBytes > Integer.MAX_VALUE) {
+            throw new ConfigParseException("Matrix of " + n + "x" + m + " is too large to map", 0, 8);
+        }
+        if (channel.size() < BINARY_HEADER_BYTES + matrixBytes) {
+            throw new ConfigParseException("Truncated matrix: expected " + matrixBytes + " bytes", 0, channel.size());
+        }
+
+        // A matriz é usada diretamente a partir do ficheiro mapeado, sem cópia para o heap.
+        MappedByteBuffer matrix = channel.map(FileChannel.MapMode.READ_ONLY, BINARY_HEADER_BYTES, matrixBytes);
+        CostMatrix matrixC = CostMatrix.wrap(n, m, matrix.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer());
+        return new SimulationConfig(n, m, tau, v, vmax, mu, rho, delta, matrixC);
+    }
+
+    /**
+     * Escreve a configuração no formato binário compacto (little-endian), para leituras mais rápidas.
+     * @param config A configuração a escrever.
+     * @param filePath Caminho do ficheiro de destino.
+     * @throws IOException Se o ficheiro não puder ser escrito.
+     */
+    public static void writeBinaryConfig(SimulationConfig config, String filePath) throws IOException {
+        int n = config.getNumPatrols();
+        int m = config.getNumPlanetarySystems();
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(BINARY_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.put(BINARY_MAGIC).putInt(BINARY_VERSION).putInt(n).putInt(m)
+                    .putDouble(config.getFinalTime()).putInt(config.getInitialPopulation()).putInt(config.getMaxPopulation())
+                    .putDouble(config.getDeathRate()).putDouble(config.getReproductionRate()).putDouble(config.getMutationRate());
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+
+            ByteBuffer row = ByteBuffer.allocateDirect(m * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < n; i++) {
+                row.clear();
+                for (int j = 0; j < m; j++) {
+                    row.putInt(config.getMatrixC(i, j));
+                }
+                row.flip();
+                while (row.hasRemaining()) {
+                    channel.write(row);
+                }
+            }
+        }
+    }
+
+    /**
+     * Lê um ficheiro de varrimento de parâmetros e devolve uma configuração por execução, todas a partilhar
+     * a matriz C (e o τ, se não for indicado) da configuração base. Cada linha não vazia que não comece
+     * por # tem uma de duas formas, que não podem ser misturadas no mesmo ficheiro:
+     * <ul>
+     *   <li>grelha: {@code <parâmetro> = <valor> <valor> ...}, com o parâmetro em mu, rho, delta, vmax ou tau;
+     *       são executadas todas as combinações, e os parâmetros omitidos ficam com o valor da base;</li>
+     *   <li>lista: {@code run <µ> <ρ> <δ> <νmax>}, uma execução por linha.</li>
+     * </ul>
+     * O ν não pode ser variado: a população inicial tem sempre uma patrulha por linha da matriz C.
+     * Os valores de νmax têm de ser inteiros positivos.
+     * @param filePath Caminho do ficheiro de varrimento.
+     * @param base Configuração que fornece a matriz C e os valores por omissão.
+     * @return As configurações a executar, pela ordem do ficheiro (na grelha, µ varia mais devagar e τ mais depressa).
+     * @throws ConfigParseException Se o conteúdo for inválido (com linha e coluna do erro).
+     * @throws IOException Se o ficheiro não puder ser lido.
+     */
+    public static List<SimulationConfig> readSweepFromFile(String filePath, SimulationConfig base) throws IOException {
+        List<String> lines;
         try {
-            File file = new File(filePath);
-            Scanner scanner = new Scanner(file);
-            try {
-                // Leitura dos parâmetros básicos do arquivo
-                int n = scanner.nextInt();
-                int m = scanner.nextInt();
-                double tau = scanner.nextDouble();
-                int v = scanner.nextInt();
-                int vmax = scanner.nextInt();
-                double mu = scanner.nextDouble();
-                double rho = scanner.nextDouble();
-                double delta = scanner.nextDouble();
-
-                // Criação e preenchimento da matriz C
-                int[][] matrixC = new int[n][m];
-                for (int i = 0; i < n; i++) {
-                    for (int j = 0; j < m; j++) {
-                        matrixC[i][j] = scanner.nextInt();
+            lines = Files.readAllLines(Paths.get(filePath), StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            throw new FileNotFoundException("File not found: " + filePath);
+        }
+
+        Map<String, double[]> grid = new LinkedHashMap<>();
+        List<SimulationConfig> runs = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).strip();
+            int lineNumber = i + 1;
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            String[] tokens = line.split("\\s+");
+            if (tokens[0].equals("run")) {
+                if (!grid.isEmpty()) {
+                    throw new ConfigParseException("Cannot mix 'run' lines with grid lines", lineNumber, 1);
+                }
+                if (tokens.length != 5) {
+                    throw new ConfigParseException("Expected 'run <µ> <ρ> <δ> <νmax>'", lineNumber, 1);
+                }
+                double[] values = new double[4];
+                for (int t = 1; t < 5; t++) {
+                    values[t - 1] = parseSweepValue(tokens[t], lines.get(i), lineNumber);
+                }
+                int vmax = requirePositiveInt(values[3], tokens[4], lines.get(i), lineNumber);
+                runs.add(sweepConfig(base, values[0], values[1], values[2], vmax, base.getFinalTime()));
+            } else {
+                if (!runs.isEmpty()) {
+                    throw new ConfigParseException("Cannot mix grid lines with 'run' lines", lineNumber, 1);
+                }
+                int equals = line.indexOf('=');
+                String key = equals < 0 ? tokens[0] : line.substring(0, equals).strip();
+                if (key.equals("v")) {
+                    throw new ConfigParseException("Parameter 'v' cannot be swept: the initial population is one patrol"
+                            + " per row of C", lineNumber, 1);
+                }
+                if (equals < 0 || !(key.equals("mu") || key.equals("rho") || key.equals("delta")
+                        || key.equals("vmax") || key.equals("tau"))) {
+                    throw new ConfigParseException("Expected '<mu|rho|delta|vmax|tau> = <values>' or 'run ...'", lineNumber, 1);
+                }
+                if (grid.containsKey(key)) {
+                    throw new ConfigParseException("Parameter '" + key + "' is given twice", lineNumber, 1);
+                }
+                String rest = line.substring(equals + 1).strip();
+                if (rest.isEmpty()) {
+                    throw new ConfigParseException("No values for '" + key + "'", lineNumber, equals + 2);
+                }
+                String[] valueTokens = rest.split("\\s+");
+                double[] values = new double[valueTokens.length];
+                for (int t = 0; t < valueTokens.length; t++) {
+                    values[t] = parseSweepValue(valueTokens[t], lines.get(i), lineNumber);
+                    if (key.equals("vmax")) {
+                        requirePositiveInt(values[t], valueTokens[t], lines.get(i), lineNumber);
                     }
                 }
-
-                // Criação da configuração de simulação com os valores lidos
-                return new SimulationConfig(n, m, tau, v, vmax, mu, rho, delta, matrixC);
-            } finally {
-                scanner.close();
+                grid.put(key, values);
             }
-        } catch (FileNotFoundException e) {
-            System.out.println("File not found: " + filePath);
-            return null; // Return null to indicate that the file could not be read
         }
+        if (!grid.isEmpty()) {
+            double[] mu = grid.getOrDefault("mu", new double[] {base.getDeathRate()});
+            double[] rho = grid.getOrDefault("rho", new double[] {base.getReproductionRate()});
+            double[] delta = grid.getOrDefault("delta", new double[] {base.getMutationRate()});
+            double[] vmax = grid.getOrDefault("vmax", new double[] {base.getMaxPopulation()});
+            double[] tau = grid.getOrDefault("tau", new double[] {base.getFinalTime()});
+            for (double a : mu)
+                for (double b : rho)
+                    for (double c : delta)
+                        for (double d : vmax)
+                            for (double f : tau)
+                                runs.add(sweepConfig(base, a, b, c, (int) d, f));
+        }
+        if (runs.isEmpty()) {
+            throw new ConfigParseException("Sweep file defines no runs", lines.size() + 1, 1);
+        }
+        return runs;
+    }
+
+    private static double parseSweepValue(String token, String line, int lineNumber) throws ConfigParseException {
+        try {
+            return Double.parseDouble(token);
+        } catch (NumberFormatException e) {
+            throw new ConfigParseException("Expected number but found '" + token + "'", lineNumber, line.indexOf(token) + 1);
+        }
+    }
+
+    /**
+     * Verifica que um valor lido é um inteiro positivo, como o νmax.
+     */
+    private static int requirePositiveInt(double value, String token, String line, int lineNumber)
+            throws ConfigParseException {
+        if (!(value >= 1 && value <= Integer.MAX_VALUE && value == Math.rint(value))) {
+            throw new ConfigParseException("Expected positive integer but found '" + token + "'", lineNumber,
+                    line.indexOf(token) + 1);
+        }
+        return (int) value;
+    }
+
+    private static SimulationConfig sweepConfig(SimulationConfig base, double mu, double rho, double delta,
+                                                int vmax, double tau) {
+        return new SimulationConfig(base.getNumPatrols(), base.getNumPlanetarySystems(), tau,
+                base.getInitialPopulation(), vmax,
+                mu, rho, delta, base.getCostMatrix());
     }
 }
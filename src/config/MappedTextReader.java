@@ -0,0 +1,144 @@
+package config;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Leitor de números em texto diretamente sobre o ficheiro mapeado em memória.
+ * Os inteiros são convertidos a partir dos bytes sem criar Strings, e a posição (linha e coluna)
+ * é acompanhada para que os erros indiquem onde ocorreram. Ficheiros maiores do que uma janela
+ * de mapeamento são lidos por janelas sucessivas.
+ */
+class MappedTextReader {
+    private static final long WINDOW_SIZE = 1L << 28; // 256 MiB por janela de mapeamento.
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private MappedByteBuffer window;
+    private long windowStart;
+
+    private long line = 1;
+    private long column = 1;
+
+    // Área de trabalho reutilizada para os números reais, que são poucos e passam por Double.parseDouble.
+    private final StringBuilder token = new StringBuilder(32);
+
+    MappedTextReader(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.fileSize = channel.size();
+        map(0);
+    }
+
+    private void map(long start) throws IOException {
+        windowStart = start;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_SIZE, fileSize - start));
+    }
+
+    /**
+     * Retorna o próximo byte sem o consumir, ou -1 no fim do ficheiro.
+     */
+    private int peek() throws IOException {
+        if (!window.hasRemaining()) {
+            long next = windowStart + window.limit();
+            if (next >= fileSize) return -1;
+            map(next);
+        }
+        return window.get(window.position()) & 0xFF;
+    }
+
+    private void advance(int b) {
+        window.position(window.position() + 1);
+        if (b == '\n') {
+            line++;
+            column = 1;
+        } else {
+            column++;
+        }
+    }
+
+    private void skipWhitespace() throws IOException {
+        int b;
+        while ((b = peek()) == ' ' || b == '\n' || b == '\r' || b == '\t') {
+            advance(b);
+        }
+    }
+
+    /**
+     * Lê o próximo inteiro do ficheiro.
+     * @param what Nome do valor a ler, usado na mensagem de erro.
+     */
+    int nextInt(String what) throws IOException {
+        return parseInt(what, -1, -1);
+    }
+
+    /**
+     * Lê o próximo valor da matriz C. O nome do valor só é construído se houver um erro.
+     * @param row Linha da matriz (a começar em 0).
+     * @param column Coluna da matriz (a começar em 0).
+     */
+    int nextMatrixValue(int row, int column) throws IOException {
+        return parseInt(null, row, column);
+    }
+
+    private static String describe(String what, int row, int column) {
+        return what != null ? what : "C[" + (row + 1) + "][" + (column + 1) + "]";
+    }
+
+    private int parseInt(String what, int row, int column) throws IOException {
+        skipWhitespace();
+        long startLine = line, startColumn = this.column;
+        int b = peek();
+        if (b < 0) {
+            throw new ConfigParseException("Unexpected end of file while reading " + describe(what, row, column), line, this.column);
+        }
+        boolean negative = b == '-';
+        if (negative || b == '+') {
+            advance(b);
+            b = peek();
+        }
+        if (b < '0' || b > '9') {
+            throw new ConfigParseException("Expected integer for " + describe(what, row, column) + " but found '" + (char) b + "'", line, this.column);
+        }
+        long value = 0;
+        while (b >= '0' && b <= '9') {
+            value = value * 10 + (b - '0');
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                throw new ConfigParseException("Integer out of range for " + describe(what, row, column), startLine, startColumn);
+            }
+            advance(b);
+            b = peek();
+        }
+        if (b >= 0 && b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+            throw new ConfigParseException("Unexpected character '" + (char) b + "' in " + describe(what, row, column), line, this.column);
+        }
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE) {
+            throw new ConfigParseException("Integer out of range for " + describe(what, row, column), startLine, startColumn);
+        }
+        return (int) value;
+    }
+
+    /**
+     * Lê o próximo número real do ficheiro.
+     * @param what Nome do valor a ler, usado na mensagem de erro.
+     */
+    double nextDouble(String what) throws IOException {
+        skipWhitespace();
+        long startLine = line, startColumn = column;
+        token.setLength(0);
+        int b;
+        while ((b = peek()) >= 0 && b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+            token.append((char) b);
+            advance(b);
+        }
+        if (token.length() == 0) {
+            throw new ConfigParseException("Unexpected end of file while reading " + what, line, column);
+        }
+        try {
+            return Double.parseDouble(token.toString());
+        } catch (NumberFormatException e) {
+            throw new ConfigParseException("Expected number for " + what + " but found '" + token + "'", startLine, startColumn);
+        }
+    }
+}
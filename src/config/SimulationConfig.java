@@ -1,5 +1,7 @@
 package config;
 
+import random.Rng;
+
 public class SimulationConfig {
     private int numPatrols;
     private int numPlanetarySystems;
@@ -9,9 +11,20 @@ public class SimulationConfig {
     private double deathRate;
     private double reproductionRate;
     private double mutationRate;
-    private int[][] matrixC;
+    private CostMatrix matrixC;
 
     public SimulationConfig (int n, int m, double tau, int v, int vmax, double mu, double rho, double delta){
+        this(n, m, tau, v, vmax, mu, rho, delta, new Rng());
+    }
+
+    // Construtor para gerar a matriz C a partir de um gerador com semente conhecida (execuções reproduzíveis)
+    public SimulationConfig (int n, int m, double tau, int v, int vmax, double mu, double rho, double delta, Rng random){
+        this(n, m, tau, v, vmax, mu, rho, delta, random, false);
+    }
+
+    // Igual ao anterior, mas com a opção de gerar a matriz C fora do heap (ver CostMatrix.offHeap)
+    public SimulationConfig (int n, int m, double tau, int v, int vmax, double mu, double rho, double delta, Rng random,
+                             boolean offHeap){
 
         this.numPatrols = n;
         this.numPlanetarySystems = m;
@@ -22,11 +35,11 @@ public class SimulationConfig {
         this.reproductionRate = rho;
         this.mutationRate = delta;
 
-        generateRandomMatrixC();
+        generateRandomMatrixC(random, offHeap);
     }
 
     // Construtor para uso quando os parâmetros são lidos de um arquivo
-    public SimulationConfig(int n, int m, double tau, int v, int vmax, double mu, double rho, double delta, int[][] matrixC) {
+    public SimulationConfig(int n, int m, double tau, int v, int vmax, double mu, double rho, double delta, CostMatrix matrixC) {
         this.numPatrols = n;
         this.numPlanetarySystems = m;
         this.finalTime = tau;
@@ -39,11 +52,11 @@ public class SimulationConfig {
     }
 
     // Método para gerar a matriz C aleatoriamente
-    private void generateRandomMatrixC() {
-        this.matrixC = new int[numPatrols][numPlanetarySystems];
+    private void generateRandomMatrixC(Rng random, boolean offHeap) {
+        this.matrixC = offHeap ? CostMatrix.offHeap(numPatrols, numPlanetarySystems) : new CostMatrix(numPatrols, numPlanetarySystems);
         for (int i = 0; i < numPatrols; i++) {
             for (int j = 0; j < numPlanetarySystems; j++) {
-                matrixC[i][j] = (int) (Math.random() * 10 + 1);  // Gera valores entre 1 e 10
+                matrixC.set(i, j, random.nextInt(10) + 1);  // Gera valores entre 1 e 10
             }
         }
     }
@@ -81,7 +94,11 @@ public class SimulationConfig {
     }
 
     public int getMatrixC(int i, int j) {
-        return matrixC[i][j];
+        return matrixC.get(i, j);
+    }
+
+    public CostMatrix getCostMatrix() {
+        return matrixC;
     }
 
 
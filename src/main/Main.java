@@ -2,11 +2,26 @@ package main;
 
 import config.SimulationConfig;
 import config.FileHandler;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import random.Rng;
+import simulation.MetricsReporter;
+import simulation.Simulation;
 import simulation.SimulationManager;
-
-//import simulation.Simulation;
+import simulation.SimulationMetrics;
+import simulation.SweepRunner;
 
 public class Main {
+    private static final int DEFAULT_MAX_STEPS = Integer.MAX_VALUE; // Por omissão, o número de eventos não é limitado.
+    private static final long DEFAULT_CONVERGENCE_EVENTS = 10000; // Eventos mínimos da janela de convergência por omissão.
+
     public static void main(String[] args) {
 
         if (args.length == 0) {
@@ -14,6 +29,94 @@ public class Main {
             return;
         }
 
+        // Opções adicionais, aceites depois do modo (-r ou -f):
+        //   -k <réplicas>  executa várias réplicas independentes em paralelo;
+        //   -s <semente>   torna a execução reproduzível;
+        //   -c <ficheiro>  guarda o estado da simulação a cada observação (só numa execução simples, sem -k nem -i);
+        //   -resume <ficheiro> retoma a simulação a partir de um estado guardado com -c (sem -k nem -i), com o motor,
+        //                  -guided, -epsilon e -converge guardados; indicá-los com outros valores é um erro;
+        //   -i <ilhas>     divide uma única simulação em ilhas paralelas com migração;
+        //   -m <intervalo> intervalo de tempo entre migrações (por omissão τ/100);
+        //   -metrics <ficheiro> liga as métricas (JMX e escrita periódica em CSV, ou JSON se terminar em .json);
+        //   -steps <eventos> termina cada simulação (réplica, ilha ou execução do varrimento) ao fim deste número de
+        //                  eventos (por omissão, sem limite; numa retoma vale o limite guardado);
+        //   -sweep <ficheiro> executa um varrimento de parâmetros sobre a matriz C da configuração;
+        //   -o <ficheiro>  destino dos resumos do varrimento (por omissão, a saída padrão);
+        //   -engine <motor> motor de eventos: queue (fila de eventos, por omissão), direct (método direto de Gillespie)
+        //                  ou leap (saltos de tempo aproximados, para varrimentos exploratórios com populações grandes);
+        //   -epsilon <tolerância> controlo de erro do modo leap (por omissão 0.03; menor é mais exato e mais lento);
+        //   -guided <k>    mutação guiada: escolhe o melhor de k movimentos sorteados em vez de um movimento ao acaso;
+        //   -converge <limiar>[,<eventos>[,<tempo>]] termina quando a melhor distribuição melhorar menos do que o limiar
+        //                  (relativo) numa janela de pelo menos <eventos> eventos (por omissão 10000) e <tempo>
+        //                  de tempo (por omissão τ/20, o intervalo entre observações);
+        //   -offheap       guarda a matriz C e as listas de sistemas das patrulhas fora do heap, para instâncias muito
+        //                  grandes (as listas requerem as classes de incubator/ e java --add-modules jdk.incubator.foreign);
+        //   -binary <ficheiro> escreve a configuração no formato binário compacto (lido diretamente por -f) e termina.
+        int replicas = 1;
+        int islands = 1;
+        double migrationInterval = 0;
+        String metricsPath = null;
+        int maxSteps = DEFAULT_MAX_STEPS;
+        String sweepPath = null;
+        String resultsPath = null;
+        Simulation.Engine engine = null; // Motor pedido com -engine, ou null para o motor por omissão.
+        double leapTolerance = 0;
+        int mutationCandidates = -1; // Candidatos pedidos com -guided, ou -1 se a opção não foi dada.
+        String convergence = null;
+        Simulation.Storage storage = Simulation.Storage.HEAP;
+        Rng random = null;
+        String checkpointPath = null;
+        String resumePath = null;
+        String binaryPath = null;
+        List<String> positional = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (i > 0 && i + 1 < args.length
+                    && (option.equals("-k") || option.equals("-s") || option.equals("-c") || option.equals("-resume")
+                        || option.equals("-i") || option.equals("-m") || option.equals("-metrics")
+                        || option.equals("-steps") || option.equals("-sweep") || option.equals("-o")
+                        || option.equals("-engine") || option.equals("-epsilon")
+                        || option.equals("-guided") || option.equals("-converge") || option.equals("-binary"))) {
+                String value = args[++i];
+                switch (option) {
+                    case "-k": replicas = Integer.parseInt(value); break;
+                    case "-s": random = new Rng(Long.parseLong(value)); break;
+                    case "-c": checkpointPath = value; break;
+                    case "-i": islands = Integer.parseInt(value); break;
+                    case "-m": migrationInterval = Double.parseDouble(value); break;
+                    case "-metrics": metricsPath = value; break;
+                    case "-steps": maxSteps = Integer.parseInt(value); break;
+                    case "-sweep": sweepPath = value; break;
+                    case "-o": resultsPath = value; break;
+                    case "-epsilon": leapTolerance = Double.parseDouble(value); break;
+                    case "-guided": mutationCandidates = Integer.parseInt(value); break;
+                    case "-converge": convergence = value; break;
+                    case "-binary": binaryPath = value; break;
+                    case "-engine":
+                        engine = parseEngine(value);
+                        if (engine == null) {
+                            printUsage();
+                            return;
+                        }
+                        break;
+                    default: resumePath = value; break;
+                }
+            } else if (i > 0 && option.equals("-offheap")) {
+                storage = Simulation.Storage.OFF_HEAP;
+            } else {
+                positional.add(args[i]);
+            }
+        }
+        args = positional.toArray(new String[0]);
+        if (random == null) {
+            random = new Rng();
+        }
+        if ((replicas > 1 || islands > 1) && (checkpointPath != null || resumePath != null)) {
+            // Os instantâneos guardam uma única simulação, não um conjunto de réplicas ou de ilhas.
+            System.out.println("Checkpoints (-c and -resume) only support a single run, not -k or -i");
+            return;
+        }
+
         SimulationConfig config = null;
 
         switch (args[0]) {
@@ -22,17 +125,28 @@ public class Main {
                     printUsage();
                     return;
                 }
-                config = new SimulationConfig(
-                        Integer.parseInt(args[1]), Integer.parseInt(args[2]), Double.parseDouble(args[3]),
-                        Integer.parseInt(args[4]), Integer.parseInt(args[5]), Double.parseDouble(args[6]),
-                        Double.parseDouble(args[7]), Double.parseDouble(args[8]));
+                try {
+                    config = new SimulationConfig(
+                            Integer.parseInt(args[1]), Integer.parseInt(args[2]), Double.parseDouble(args[3]),
+                            Integer.parseInt(args[4]), Integer.parseInt(args[5]), Double.parseDouble(args[6]),
+                            Double.parseDouble(args[7]), Double.parseDouble(args[8]), random.split(),
+                            storage == Simulation.Storage.OFF_HEAP);
+                } catch (IllegalArgumentException e) {
+                    // Dimensões inválidas ou uma matriz C acima do limite de 2 GB
+                    System.out.println(e.getMessage());
+                    return;
+                }
                 break;
             case "-f":
                 if (args.length != 2) {
                     printUsage();
                     return;
                 }
-                config = FileHandler.readConfigFromFile(args[1]);
+                try {
+                    config = FileHandler.readConfigFromFile(args[1], storage == Simulation.Storage.OFF_HEAP);
+                } catch (IOException e) {
+                    System.out.println(e.getMessage());
+                }
                 break;
             default:
                 printUsage();
@@ -44,17 +158,164 @@ public class Main {
             return;
         }
 
-        // Cria uma instância do gerenciador de simulação com os parâmetros especificados.
-        SimulationManager manager = new SimulationManager(1000, config.getMaxPopulation(), config.getDeathRate(),
-                config.getReproductionRate(),config.getMutationRate(), config.getNumPatrols(), config.getNumPlanetarySystems());
+        if (binaryPath != null) {
+            try {
+                FileHandler.writeBinaryConfig(config, binaryPath);
+            } catch (IOException e) {
+                System.out.println(e.getMessage());
+            }
+            return;
+        }
+
+        // Janela de convergência: limiar, número de eventos e duração.
+        double convergenceThreshold = -1;
+        long convergenceEvents = DEFAULT_CONVERGENCE_EVENTS;
+        double convergenceTime = config.getFinalTime() / 20;
+        if (convergence != null) {
+            String[] parts = convergence.split(",");
+            convergenceThreshold = Double.parseDouble(parts[0]);
+            if (parts.length > 1) convergenceEvents = Long.parseLong(parts[1]);
+            if (parts.length > 2) convergenceTime = Double.parseDouble(parts[2]);
+        }
+
+        MetricsReporter reporter = null;
+        SimulationMetrics metrics = null;
+        if (metricsPath != null) {
+            metrics = new SimulationMetrics();
+            metrics.registerMBean("main");
+            try {
+                reporter = new MetricsReporter(metrics, Path.of(metricsPath), 1000);
+            } catch (IOException e) {
+                System.out.println(e.getMessage());
+                return;
+            }
+        }
+
+        if (sweepPath != null) {
+            SweepRunner runner = new SweepRunner(maxSteps, Runtime.getRuntime().availableProcessors(), random);
+            if (engine != null) {
+                runner.setEngine(engine);
+            }
+            if (leapTolerance > 0) {
+                runner.setLeapTolerance(leapTolerance);
+            }
+            if (mutationCandidates >= 0) {
+                runner.setGuidedMutation(mutationCandidates);
+            }
+            if (convergenceThreshold >= 0) {
+                runner.setConvergence(convergenceThreshold, convergenceEvents, convergenceTime);
+            }
+            runner.setStorage(storage);
+            runner.setMetrics(metrics);
+            runSweep(config, sweepPath, resultsPath, runner);
+            closeReporter(reporter);
+            return;
+        }
+
+        // Cria uma instância do gerenciador de simulação com os parâmetros especificados,
+        // ou retoma a simulação guardada (a configuração continua a fornecer a matriz C e τ).
+        SimulationManager manager;
+        try {
+            if (resumePath != null) {
+                manager = SimulationManager.resume(resumePath, config.getCostMatrix(), random, storage);
+            } else {
+                manager = new SimulationManager(maxSteps, config.getMaxPopulation(), config.getDeathRate(),
+                        config.getReproductionRate(),config.getMutationRate(), config.getCostMatrix(), random, storage);
+            }
+        } catch (IOException | IllegalStateException e) {
+            System.out.println(e.getMessage());
+            return;
+        }
+        manager.setCheckpointPath(checkpointPath);
+        if (resumePath != null && engine != null && engine != manager.getEngine()) {
+            // O estado guardado (fila de eventos ou árvore de taxas) pertence ao motor com que foi escrito.
+            System.out.println("The checkpoint was taken with the " + manager.getEngine()
+                    + " engine, which cannot be changed on resume");
+            manager.close();
+            return;
+        }
+        if (resumePath == null && engine != null) {
+            manager.setEngine(engine);
+        }
+        try {
+            // Numa retoma, estas opções só são aceites com os valores guardados no instantâneo.
+            if (leapTolerance > 0) {
+                manager.setLeapTolerance(leapTolerance);
+            }
+            if (mutationCandidates >= 0) {
+                manager.setGuidedMutation(mutationCandidates);
+            }
+            if (convergenceThreshold >= 0) {
+                manager.setConvergence(convergenceThreshold, convergenceEvents, convergenceTime);
+            }
+        } catch (IllegalStateException e) {
+            System.out.println(e.getMessage());
+            manager.close();
+            return;
+        }
+
+        manager.setMetrics(metrics);
 
         // Inicia a simulação.
-        manager.start(config.getFinalTime());
+        if (islands > 1) {
+            double interval = migrationInterval > 0 ? migrationInterval : config.getFinalTime() / 100;
+            manager.startIslands(config.getFinalTime(), islands, interval);
+        } else if (replicas > 1) {
+            manager.startReplicas(config.getFinalTime(), replicas);
+        } else {
+            manager.start(config.getFinalTime());
+        }
+        // As métricas são fechadas antes das simulações, para que a última linha inclua a população final.
+        closeReporter(reporter);
+        manager.close();
     }
+
+    /**
+     * Escreve a última linha das métricas e fecha o ficheiro, mostrando a mensagem de erro se a escrita falhar.
+     */
+    private static void closeReporter(MetricsReporter reporter) {
+        if (reporter == null) return;
+        try {
+            reporter.close();
+        } catch (UncheckedIOException e) {
+            System.out.println(e.getCause().getMessage());
+        }
+    }
+    /**
+     * Executa todas as configurações do ficheiro de varrimento sobre a matriz C já lida, na mesma JVM.
+     */
+    private static void runSweep(SimulationConfig base, String sweepPath, String resultsPath, SweepRunner runner) {
+        try {
+            List<SimulationConfig> configs = FileHandler.readSweepFromFile(sweepPath, base);
+            if (resultsPath == null) {
+                Writer out = new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+                runner.run(configs, out);
+            } else {
+                try (Writer out = Files.newBufferedWriter(Path.of(resultsPath), StandardCharsets.UTF_8)) {
+                    runner.run(configs, out);
+                }
+            }
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Converte o nome de um motor de eventos na opção -engine, ou null se não for conhecido.
+     */
+    private static Simulation.Engine parseEngine(String name) {
+        switch (name) {
+            case "queue": return Simulation.Engine.EVENT_QUEUE;
+            case "direct": return Simulation.Engine.DIRECT_METHOD;
+            case "leap": return Simulation.Engine.TAU_LEAPING;
+            default: return null;
+        }
+    }
+
     private static void printUsage() {
         System.out.println("Usage:");
-        System.out.println("java -jar project.jar -r <n> <m> <τ> <ν> <νmax> <µ> <ρ> <δ>");
-        System.out.println("java -jar project.jar -f <infile>");
+        System.out.println("java -jar project.jar -r <n> <m> <τ> <ν> <νmax> <µ> <ρ> <δ> [-k <replicas>] [-s <seed>] [-c <checkpoint>] [-resume <checkpoint>] [-i <islands> [-m <interval>]] [-metrics <file>] [-steps <max steps>] [-sweep <sweep file> [-o <results>]] [-engine queue|direct|leap [-epsilon <tolerance>]] [-guided <k>] [-converge <threshold>[,<events>[,<time>]]] [-offheap] [-binary <file>]");
+        System.out.println("java -jar project.jar -f <infile> [-k <replicas>] [-s <seed>] [-c <checkpoint>] [-resume <checkpoint>] [-i <islands> [-m <interval>]] [-metrics <file>] [-steps <max steps>] [-sweep <sweep file> [-o <results>]] [-engine queue|direct|leap [-epsilon <tolerance>]] [-guided <k>] [-converge <threshold>[,<events>[,<time>]]] [-offheap] [-binary <file>]");
     }
 
 }
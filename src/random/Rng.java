@@ -0,0 +1,187 @@
+package random;
+
+/**
+ * Gerador de números pseudo-aleatórios SplitMix64 (o mesmo algoritmo de java.util.SplittableRandom),
+ * sem sincronização e com estado acessível. Cada simulação, réplica ou thread deve ter o seu próprio
+ * gerador, obtido com split() a partir de uma semente comum: assim as execuções são reproduzíveis
+ * e as threads não disputam um gerador partilhado.
+ */
+public final class Rng {
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+    private static final double DOUBLE_UNIT = 0x1.0p-53;
+
+    private long seed;
+    private final long gamma; // Incremento ímpar da sequência, diferente em cada gerador obtido por split().
+
+    /**
+     * Cria um gerador com a semente indicada.
+     * @param seed A semente inicial.
+     */
+    public Rng(long seed) {
+        this(seed, GOLDEN_GAMMA);
+    }
+
+    /**
+     * Cria um gerador com uma semente derivada do relógio, para execuções não reproduzíveis.
+     */
+    public Rng() {
+        this(mix64(System.nanoTime()) ^ mix64(System.currentTimeMillis() + GOLDEN_GAMMA));
+    }
+
+    private Rng(long seed, long gamma) {
+        this.seed = seed;
+        this.gamma = gamma;
+    }
+
+    /**
+     * Recria um gerador a partir do estado guardado com getSeed() e getGamma().
+     */
+    public static Rng restore(long seed, long gamma) {
+        if ((gamma & 1) == 0) {
+            throw new IllegalArgumentException("Invalid generator state: gamma must be odd");
+        }
+        return new Rng(seed, gamma);
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public long getGamma() {
+        return gamma;
+    }
+
+    /**
+     * Cria um novo gerador independente, cuja sequência não se sobrepõe (estatisticamente) à deste.
+     * @return O novo gerador.
+     */
+    public Rng split() {
+        return new Rng(nextLong(), mixGamma(nextSeed()));
+    }
+
+    private long nextSeed() {
+        return seed += gamma;
+    }
+
+    public long nextLong() {
+        return mix64(nextSeed());
+    }
+
+    /**
+     * Retorna um número real uniforme em [0, 1).
+     */
+    public double nextDouble() {
+        return (nextLong() >>> 11) * DOUBLE_UNIT;
+    }
+
+    /**
+     * Retorna um inteiro uniforme em [0, bound), pelo método de multiplicação de Lemire (sem divisão na maioria dos casos).
+     * @param bound O limite superior (exclusivo), positivo.
+     */
+    public int nextInt(int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("bound must be positive: " + bound);
+        }
+        long m = (nextLong() >>> 32) * bound;
+        long low = m & 0xffffffffL;
+        if (low < bound) {
+            long threshold = Integer.remainderUnsigned(-bound, bound);
+            while (low < threshold) {
+                m = (nextLong() >>> 32) * bound;
+                low = m & 0xffffffffL;
+            }
+        }
+        return (int) (m >>> 32);
+    }
+
+    /**
+     * Retorna uma amostra da distribuição exponencial de taxa 1 (média 1).
+     */
+    public double nextExponential() {
+        return -Math.log1p(-nextDouble());
+    }
+
+    /**
+     * Retorna uma amostra da distribuição exponencial com a taxa indicada.
+     * @param rate A taxa (inverso da média), positiva.
+     */
+    public double nextExponential(double rate) {
+        return nextExponential() / rate;
+    }
+
+    /**
+     * Retorna uma amostra da distribuição de Poisson com a média indicada.
+     * Para médias pequenas usa inversão sequencial; para médias maiores, o método PTRS de Hörmann
+     * (transformed rejection with squeeze), com custo constante qualquer que seja a média.
+     * @param mean A média (não negativa).
+     * @return O número de ocorrências, limitado a Integer.MAX_VALUE.
+     */
+    public int nextPoisson(double mean) {
+        if (!(mean > 0)) return 0;
+        if (mean < 10) {
+            double p = Math.exp(-mean);
+            double cdf = p;
+            double u = nextDouble();
+            int k = 0;
+            while (u > cdf && p > 0) {
+                k++;
+                p *= mean / k;
+                cdf += p;
+            }
+            return k;
+        }
+        double sqrtMean = Math.sqrt(mean);
+        double logMean = Math.log(mean);
+        double b = 0.931 + 2.53 * sqrtMean;
+        double a = -0.059 + 0.02483 * b;
+        double logAlpha = Math.log(1.1239 + 1.1328 / (b - 3.4));
+        double vr = 0.9277 - 3.6224 / (b - 2);
+        while (true) {
+            double u = nextDouble() - 0.5;
+            double v = nextDouble();
+            double us = 0.5 - Math.abs(u);
+            double k = Math.floor((2 * a / us + b) * u + mean + 0.43);
+            if (us >= 0.07 && v <= vr) {
+                return (int) Math.min(k, Integer.MAX_VALUE);
+            }
+            if (k < 0 || (us < 0.013 && v > us)) {
+                continue;
+            }
+            if (Math.log(v) + logAlpha - Math.log(a / (us * us) + b) <= -mean + k * logMean - logFactorial(k)) {
+                return (int) Math.min(k, Integer.MAX_VALUE);
+            }
+        }
+    }
+
+    /**
+     * log(k!) pela série de Stirling, exata até à precisão de double para k >= 10 e calculada diretamente abaixo.
+     */
+    private static double logFactorial(double k) {
+        if (k < 10) {
+            double product = 1;
+            for (int i = 2; i <= k; i++) {
+                product *= i;
+            }
+            return Math.log(product);
+        }
+        double x = k + 1;
+        double inverse = 1 / x;
+        double inverse2 = inverse * inverse;
+        return (x - 0.5) * Math.log(x) - x + 0.5 * Math.log(2 * Math.PI)
+                + inverse * (1.0 / 12 - inverse2 * (1.0 / 360 - inverse2 / 1260));
+    }
+
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private static long mixGamma(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        z = (z ^ (z >>> 33)) | 1L;
+        int transitions = Long.bitCount(z ^ (z >>> 1));
+        return transitions < 24 ? z ^ 0xaaaaaaaaaaaaaaaaL : z;
+    }
+}
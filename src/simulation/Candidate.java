@@ -0,0 +1,73 @@
+package simulation;
+
+import java.util.Arrays;
+
+/**
+ * Instantâneo imutável de uma distribuição candidata: os sistemas de uma patrulha num dado momento,
+ * com o respetivo tempo de policiamento e conforto. O array de sistemas é partilhado com a patrulha
+ * de origem até esta voltar a ser alterada, pelo que criar um candidato não copia a distribuição.
+ */
+public final class Candidate {
+    private final int[] systems;
+    private final int systemCount;
+    private final int unit;
+    private final int policingTime;
+    private final double comfort;
+    private final long hash;
+
+    Candidate(Patrol patrol) {
+        this.systemCount = patrol.getSystemCount();
+        this.systems = patrol.shareSystems();
+        this.unit = patrol.getUnit();
+        this.policingTime = patrol.getTotalPatrolTime();
+        this.comfort = patrol.getComfort();
+        this.hash = patrol.getDistributionHash();
+    }
+
+    /**
+     * Recria um candidato guardado num instantâneo da simulação.
+     */
+    Candidate(int[] systems, int systemCount, int unit, int policingTime, double comfort, long hash) {
+        this.systems = systems;
+        this.systemCount = systemCount;
+        this.unit = unit;
+        this.policingTime = policingTime;
+        this.comfort = comfort;
+        this.hash = hash;
+    }
+
+    /**
+     * Retorna os identificadores dos sistemas desta distribuição.
+     * @return Uma cópia dos sistemas.
+     */
+    public int[] getSystems() {
+        return Arrays.copyOf(systems, systemCount);
+    }
+
+    public int getSystemCount() {
+        return systemCount;
+    }
+
+    public int getUnit() {
+        return unit;
+    }
+
+    public int getPolicingTime() {
+        return policingTime;
+    }
+
+    public double getComfort() {
+        return comfort;
+    }
+
+    long getHash() {
+        return hash;
+    }
+
+    /**
+     * Array interno de sistemas, sem cópia (apenas as primeiras getSystemCount() posições são válidas).
+     */
+    int[] systemsArray() {
+        return systems;
+    }
+}
@@ -0,0 +1,134 @@
+package simulation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Guarda as K melhores distribuições encontradas durante a simulação, ordenadas por conforto
+ * (e, em caso de empate, pelo menor tempo de policiamento). Distribuições repetidas são
+ * detetadas pela assinatura da patrulha, confirmadas comparando os sistemas, e guardadas apenas uma vez
+ * (com a melhor avaliação).
+ * Uma patrulha pior do que o último candidato é rejeitada em O(1); as restantes custam O(K).
+ */
+class CandidateStore {
+    private final Candidate[] candidates; // Candidatos por ordem decrescente de qualidade.
+    private int size;
+
+    // Áreas de trabalho reutilizadas para comparar duas distribuições com a mesma assinatura.
+    private int[] offered = new int[16];
+    private int[] stored = new int[16];
+
+    /**
+     * @param capacity Número máximo de candidatos guardados (K).
+     */
+    CandidateStore(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Candidate store capacity must be positive: " + capacity);
+        }
+        this.candidates = new Candidate[capacity];
+    }
+
+    /**
+     * Propõe a distribuição atual de uma patrulha.
+     * @param patrol A patrulha cuja distribuição pode entrar no conjunto.
+     * @return true se a distribuição passou a ser a melhor de todas.
+     */
+    boolean offer(Patrol patrol) {
+        double comfort = patrol.getComfort();
+        int policingTime = patrol.getTotalPatrolTime();
+        if (size == candidates.length && !isBetter(comfort, policingTime, candidates[size - 1])) {
+            return false;
+        }
+        long hash = patrol.getDistributionHash();
+        int position = size;
+        for (int i = 0; i < size; i++) {
+            if (position == size && isBetter(comfort, policingTime, candidates[i])) {
+                position = i;
+            }
+            if (candidates[i].getHash() == hash && sameDistribution(patrol, candidates[i])) {
+                // Distribuição já guardada: só é substituída se a nova avaliação for melhor.
+                if (position > i) {
+                    return false;
+                }
+                System.arraycopy(candidates, position, candidates, position + 1, i - position);
+                candidates[position] = new Candidate(patrol);
+                return position == 0;
+            }
+        }
+        if (position == candidates.length) {
+            return false;
+        }
+        int last = Math.min(size, candidates.length - 1);
+        System.arraycopy(candidates, position, candidates, position + 1, last - position);
+        candidates[position] = new Candidate(patrol);
+        if (size < candidates.length) {
+            size++;
+        }
+        return position == 0;
+    }
+
+    /**
+     * Verifica se a patrulha tem a mesma linha da matriz C e os mesmos sistemas (em qualquer ordem) que o candidato.
+     */
+    private boolean sameDistribution(Patrol patrol, Candidate candidate) {
+        int count = patrol.getSystemCount();
+        if (patrol.getUnit() != candidate.getUnit() || count != candidate.getSystemCount()) {
+            return false;
+        }
+        if (offered.length < count) {
+            offered = new int[Math.max(count, offered.length * 2)];
+            stored = new int[offered.length];
+        }
+        for (int i = 0; i < count; i++) {
+            offered[i] = patrol.getSystem(i);
+        }
+        System.arraycopy(candidate.systemsArray(), 0, stored, 0, count);
+        Arrays.sort(offered, 0, count);
+        Arrays.sort(stored, 0, count);
+        return Arrays.equals(offered, 0, count, stored, 0, count);
+    }
+
+    private static boolean isBetter(double comfort, int policingTime, Candidate candidate) {
+        return comfort > candidate.getComfort()
+                || (comfort == candidate.getComfort() && policingTime < candidate.getPolicingTime());
+    }
+
+    /**
+     * Acrescenta um candidato no fim, assumindo que é pior do que os já guardados (usado ao retomar um instantâneo).
+     */
+    void append(Candidate candidate) {
+        if (size < candidates.length) {
+            candidates[size++] = candidate;
+        }
+    }
+
+    /**
+     * Retorna o melhor candidato, ou null se ainda não houver nenhum.
+     */
+    Candidate best() {
+        return size == 0 ? null : candidates[0];
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Retorna uma cópia dos candidatos por ordem decrescente de qualidade, num array.
+     */
+    Candidate[] toArray() {
+        return Arrays.copyOf(candidates, size);
+    }
+
+    /**
+     * Retorna os candidatos por ordem decrescente de qualidade.
+     */
+    List<Candidate> toList() {
+        List<Candidate> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(candidates[i]);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,378 @@
+package simulation;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Instantâneo completo de uma simulação em curso, suficiente para a retomar de forma idêntica:
+ * população (pela ordem do array), sistemas de cada patrulha (pela ordem interna), fila de eventos
+ * (pela ordem do heap), identificadores livres, contadores, estado do gerador e melhores candidatos.
+ *
+ * A captura não copia os sistemas: os blocos (no heap ou fora dele) são partilhados com as patrulhas em copy-on-write,
+ * pelo que o ciclo de eventos só paga O(população + eventos). A escrita é feita numa thread à parte,
+ * num formato binário colunar (little-endian) escrito através de um FileChannel.
+ * A matriz C não faz parte do instantâneo; a simulação é retomada com a mesma configuração.
+ */
+final class Checkpoint {
+    private static final int MAGIC = 0x534F4F50; // "POOS" em little-endian.
+    private static final int VERSION = 2;
+
+    // Thread única e partilhada para as escritas em segundo plano.
+    private static final ExecutorService WRITER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "checkpoint-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Parâmetros da simulação.
+    int maxSteps;
+    int maxPopulation;
+    double mu;
+    double rho;
+    double delta;
+    int rows;
+    int columns;
+    int epidemicSurvivors;
+    double epidemicSurvivalProbability;
+
+    // Estado escalar.
+    double currentTime;
+    boolean running;
+    int stopReason; // Ordinal de Simulation.StopReason mais um, ou 0 se a simulação não parou.
+    boolean eventDriven;
+    boolean directMethod;
+    boolean tauLeaping;
+    long eventCount;
+    int epidemicCount;
+    double tmin;
+    long rngSeed;
+    long rngGamma;
+    int nextEventId;
+    int[] freeEventIds;
+
+    // População, em colunas: uma posição por patrulha.
+    int[] units;
+    int[] eventIds;
+    int[] systemCounts;
+    SystemStorage.Block[] systems; // Partilhados com as patrulhas; apenas as primeiras systemCounts[i] posições contam.
+
+    // Fila de eventos, pela ordem do heap.
+    int[] heapIds;
+    double[] heapTimes;
+
+    // Melhores candidatos, do melhor para o pior.
+    int[] candidateUnits;
+    int[] candidatePolicingTimes;
+    double[] candidateComforts;
+    long[] candidateHashes;
+    int[] candidateCounts;
+    int[][] candidateSystems;
+
+    // Opções que alteram a execução: mutação guiada, controlo de erro dos saltos e deteção de convergência.
+    int mutationCandidates;
+    double leapTolerance;
+    boolean converging; // Se false, os campos seguintes não são usados.
+    double convergenceThreshold;
+    long convergenceWindowEvents;
+    double convergenceWindowTime;
+    long convergenceStartEvents;
+    double convergenceStartTime;
+    long[] convergenceSampleEvents; // Amostras da janela de convergência, da mais antiga para a mais recente.
+    double[] convergenceSampleTimes;
+    double[] convergenceSampleComforts;
+    int[] convergenceSamplePolicingTimes;
+
+    /**
+     * Escreve o instantâneo em segundo plano. O ficheiro é escrito com outro nome e depois renomeado,
+     * para que um ficheiro existente nunca fique incompleto.
+     * @param path Ficheiro de destino.
+     * @return Uma tarefa que termina quando o ficheiro estiver escrito.
+     */
+    CompletableFuture<Void> writeAsync(Path path) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                write(path);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, WRITER);
+    }
+
+    void write(Path path) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            Output out = new Output(channel);
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(maxSteps);
+            out.putInt(maxPopulation);
+            out.putDouble(mu);
+            out.putDouble(rho);
+            out.putDouble(delta);
+            out.putInt(rows);
+            out.putInt(columns);
+            out.putInt(epidemicSurvivors);
+            out.putDouble(epidemicSurvivalProbability);
+
+            out.putDouble(currentTime);
+            out.putInt((running ? 1 : 0) | (eventDriven ? 2 : 0) | (directMethod ? 4 : 0) | (tauLeaping ? 8 : 0) | stopReason << 4);
+            out.putLong(eventCount);
+            out.putInt(epidemicCount);
+            out.putDouble(tmin);
+            out.putLong(rngSeed);
+            out.putLong(rngGamma);
+            out.putInt(nextEventId);
+            out.putIntArray(freeEventIds, freeEventIds.length);
+
+            out.putIntArray(units, units.length);
+            out.putIntArray(eventIds, eventIds.length);
+            out.putIntArray(systemCounts, systemCounts.length);
+            for (int i = 0; i < systems.length; i++) {
+                out.putInts(systems[i], systemCounts[i]);
+            }
+
+            out.putIntArray(heapIds, heapIds.length);
+            for (double time : heapTimes) {
+                out.putDouble(time);
+            }
+
+            out.putIntArray(candidateUnits, candidateUnits.length);
+            out.putInts(candidatePolicingTimes, candidatePolicingTimes.length);
+            for (double comfort : candidateComforts) {
+                out.putDouble(comfort);
+            }
+            for (long hash : candidateHashes) {
+                out.putLong(hash);
+            }
+            out.putInts(candidateCounts, candidateCounts.length);
+            for (int i = 0; i < candidateSystems.length; i++) {
+                out.putInts(candidateSystems[i], candidateCounts[i]);
+            }
+
+            out.putInt(mutationCandidates);
+            out.putDouble(leapTolerance);
+            out.putInt(converging ? 1 : 0);
+            if (converging) {
+                out.putDouble(convergenceThreshold);
+                out.putLong(convergenceWindowEvents);
+                out.putDouble(convergenceWindowTime);
+                out.putLong(convergenceStartEvents);
+                out.putDouble(convergenceStartTime);
+                out.putInt(convergenceSampleEvents.length);
+                for (long events : convergenceSampleEvents) {
+                    out.putLong(events);
+                }
+                for (double time : convergenceSampleTimes) {
+                    out.putDouble(time);
+                }
+                for (double comfort : convergenceSampleComforts) {
+                    out.putDouble(comfort);
+                }
+                out.putInts(convergenceSamplePolicingTimes, convergenceSamplePolicingTimes.length);
+            }
+            out.flush();
+            channel.force(false);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Lê um instantâneo escrito por write().
+     * @param path O ficheiro a ler.
+     * @throws IOException Se o ficheiro não existir ou não for um instantâneo válido.
+     */
+    static Checkpoint read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            Checkpoint c = new Checkpoint();
+            try {
+                if (in.getInt() != MAGIC) {
+                    throw new IOException("Not a simulation checkpoint: " + path);
+                }
+                int version = in.getInt();
+                if (version != VERSION) {
+                    throw new IOException("Unsupported checkpoint version " + version + ": " + path);
+                }
+                c.maxSteps = in.getInt();
+                c.maxPopulation = in.getInt();
+                c.mu = in.getDouble();
+                c.rho = in.getDouble();
+                c.delta = in.getDouble();
+                c.rows = in.getInt();
+                c.columns = in.getInt();
+                c.epidemicSurvivors = in.getInt();
+                c.epidemicSurvivalProbability = in.getDouble();
+
+                c.currentTime = in.getDouble();
+                int flags = in.getInt();
+                c.running = (flags & 1) != 0;
+                c.eventDriven = (flags & 2) != 0;
+                c.directMethod = (flags & 4) != 0;
+                c.tauLeaping = (flags & 8) != 0;
+                c.stopReason = flags >>> 4;
+                c.eventCount = in.getLong();
+                c.epidemicCount = in.getInt();
+                c.tmin = in.getDouble();
+                c.rngSeed = in.getLong();
+                c.rngGamma = in.getLong();
+                c.nextEventId = in.getInt();
+                c.freeEventIds = getIntArray(in);
+
+                c.units = getIntArray(in);
+                c.eventIds = getIntArray(in);
+                c.systemCounts = getIntArray(in);
+                c.systems = new SystemStorage.Block[c.units.length];
+                for (int i = 0; i < c.systems.length; i++) {
+                    c.systems[i] = SystemStorage.wrap(getInts(in, c.systemCounts[i]));
+                }
+
+                c.heapIds = getIntArray(in);
+                c.heapTimes = new double[c.heapIds.length];
+                for (int i = 0; i < c.heapTimes.length; i++) {
+                    c.heapTimes[i] = in.getDouble();
+                }
+
+                c.candidateUnits = getIntArray(in);
+                int candidates = c.candidateUnits.length;
+                c.candidatePolicingTimes = getInts(in, candidates);
+                c.candidateComforts = new double[candidates];
+                for (int i = 0; i < candidates; i++) {
+                    c.candidateComforts[i] = in.getDouble();
+                }
+                c.candidateHashes = new long[candidates];
+                for (int i = 0; i < candidates; i++) {
+                    c.candidateHashes[i] = in.getLong();
+                }
+                c.candidateCounts = getInts(in, candidates);
+                c.candidateSystems = new int[candidates][];
+                for (int i = 0; i < candidates; i++) {
+                    c.candidateSystems[i] = getInts(in, c.candidateCounts[i]);
+                }
+
+                c.mutationCandidates = in.getInt();
+                c.leapTolerance = in.getDouble();
+                c.converging = in.getInt() != 0;
+                if (c.converging) {
+                    c.convergenceThreshold = in.getDouble();
+                    c.convergenceWindowEvents = in.getLong();
+                    c.convergenceWindowTime = in.getDouble();
+                    c.convergenceStartEvents = in.getLong();
+                    c.convergenceStartTime = in.getDouble();
+                    int samples = in.getInt();
+                    c.convergenceSampleEvents = new long[samples];
+                    for (int i = 0; i < samples; i++) {
+                        c.convergenceSampleEvents[i] = in.getLong();
+                    }
+                    c.convergenceSampleTimes = new double[samples];
+                    for (int i = 0; i < samples; i++) {
+                        c.convergenceSampleTimes[i] = in.getDouble();
+                    }
+                    c.convergenceSampleComforts = new double[samples];
+                    for (int i = 0; i < samples; i++) {
+                        c.convergenceSampleComforts[i] = in.getDouble();
+                    }
+                    c.convergenceSamplePolicingTimes = getInts(in, samples);
+                }
+            } catch (BufferUnderflowException | NegativeArraySizeException e) {
+                throw new IOException("Truncated or corrupt checkpoint: " + path, e);
+            }
+            return c;
+        }
+    }
+
+    private static int[] getIntArray(ByteBuffer in) {
+        return getInts(in, in.getInt());
+    }
+
+    private static int[] getInts(ByteBuffer in, int count) {
+        int[] values = new int[count];
+        in.asIntBuffer().get(values);
+        in.position(in.position() + count * Integer.BYTES);
+        return values;
+    }
+
+    /**
+     * Escrita com buffer direto sobre um FileChannel.
+     */
+    private static final class Output {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+
+        Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(Integer.BYTES);
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            ensure(Long.BYTES);
+            buffer.putLong(value);
+        }
+
+        void putDouble(double value) throws IOException {
+            ensure(Double.BYTES);
+            buffer.putDouble(value);
+        }
+
+        /**
+         * Escreve o comprimento seguido dos valores.
+         */
+        void putIntArray(int[] values, int count) throws IOException {
+            putInt(count);
+            putInts(values, count);
+        }
+
+        void putInts(int[] values, int count) throws IOException {
+            int offset = 0;
+            while (offset < count) {
+                ensure(Integer.BYTES);
+                int chunk = Math.min(count - offset, buffer.remaining() / Integer.BYTES);
+                buffer.asIntBuffer().put(values, offset, chunk);
+                buffer.position(buffer.position() + chunk * Integer.BYTES);
+                offset += chunk;
+            }
+        }
+
+        /**
+         * Escreve as primeiras count posições do bloco, lidas diretamente de onde estão guardadas.
+         */
+        void putInts(SystemStorage.Block values, int count) throws IOException {
+            int offset = 0;
+            while (offset < count) {
+                ensure(Integer.BYTES);
+                int chunk = Math.min(count - offset, buffer.remaining() / Integer.BYTES);
+                values.writeTo(buffer, offset, chunk);
+                offset += chunk;
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
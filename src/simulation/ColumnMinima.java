@@ -0,0 +1,45 @@
+package simulation;
+
+import config.CostMatrix;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Cálculo do tmin (a média dos mínimos das colunas da matriz C) numa só passagem pela matriz.
+ * A matriz é percorrida por linhas (de forma contígua, o que o JIT consegue vetorizar) e em paralelo
+ * por grupos de colunas, em vez de coluna a coluna.
+ */
+final class ColumnMinima {
+    private static final int COLUMNS_PER_TASK = 4096; // Colunas tratadas por cada tarefa paralela.
+
+    private ColumnMinima() {
+    }
+
+    /**
+     * Retorna a média dos mínimos das colunas da matriz.
+     */
+    static double tmin(CostMatrix costs) {
+        int rows = costs.getRows();
+        int columns = costs.getColumns();
+        int[] minima = new int[columns];
+        Arrays.fill(minima, Integer.MAX_VALUE);
+
+        int tasks = (columns + COLUMNS_PER_TASK - 1) / COLUMNS_PER_TASK;
+        IntStream stream = IntStream.range(0, tasks);
+        if ((long) rows * columns >= 1 << 20) {
+            stream = stream.parallel(); // Só compensa dividir o trabalho em matrizes grandes.
+        }
+        stream.forEach(task -> {
+            int from = task * COLUMNS_PER_TASK;
+            int to = Math.min(columns, from + COLUMNS_PER_TASK);
+            for (int i = 0; i < rows; i++) {
+                costs.minInto(i, from, to, minima);
+            }
+        });
+        long sum = 0;
+        for (int j = 0; j < columns; j++) {
+            sum += minima[j];
+        }
+        return (double) sum / columns;
+    }
+}
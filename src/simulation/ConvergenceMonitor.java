@@ -0,0 +1,167 @@
+package simulation;
+
+/**
+ * Deteta quando a melhor distribuição deixou de melhorar, para que uma execução possa terminar mais cedo.
+ * Em cada evento recebe o melhor conforto e o respetivo tempo de policiamento do império, e compara-os com
+ * os valores no início de uma janela deslizante que cobre pelo menos windowEvents eventos e windowTime de tempo.
+ * A execução convergiu quando nem o conforto nem o tempo de policiamento melhoraram, em termos relativos,
+ * mais do que threshold dentro dessa janela.
+ *
+ * Só são guardadas as amostras em que os melhores valores mudam, num buffer circular; o início da janela avança
+ * sobre esse buffer, pelo que cada evento custa O(1) amortizado, sem percorrer a janela.
+ */
+class ConvergenceMonitor {
+    private static final double MIN_COMFORT = 1e-12; // Evita dividir por zero quando o conforto inicial é nulo.
+
+    private final double threshold;
+    private final long windowEvents;
+    private final double windowTime;
+
+    // Amostras (número de eventos, instante, melhor conforto, tempo de policiamento) num buffer circular.
+    private long[] sampleEvents = new long[16];
+    private double[] sampleTimes = new double[16];
+    private double[] sampleComforts = new double[16];
+    private int[] samplePolicingTimes = new int[16];
+    private int head;
+    private int size;
+
+    // Início da monitorização: a janela só fica completa depois de windowEvents eventos e windowTime de tempo.
+    private long startEvents = -1;
+    private double startTime;
+
+    /**
+     * @param threshold Melhoria relativa mínima dentro da janela para a execução continuar.
+     * @param windowEvents Número mínimo de eventos da janela.
+     * @param windowTime Duração mínima da janela (0 para considerar apenas os eventos).
+     */
+    ConvergenceMonitor(double threshold, long windowEvents, double windowTime) {
+        if (!(threshold >= 0)) {
+            throw new IllegalArgumentException("Convergence threshold cannot be negative: " + threshold);
+        }
+        if (windowEvents < 1) {
+            throw new IllegalArgumentException("Convergence window must have at least one event: " + windowEvents);
+        }
+        this.threshold = threshold;
+        this.windowEvents = windowEvents;
+        this.windowTime = Math.max(0, windowTime);
+    }
+
+    /**
+     * Recria um monitor guardado num instantâneo por capture(), com a mesma janela e as mesmas amostras.
+     */
+    ConvergenceMonitor(Checkpoint c) {
+        this(c.convergenceThreshold, c.convergenceWindowEvents, c.convergenceWindowTime);
+        startEvents = c.convergenceStartEvents;
+        startTime = c.convergenceStartTime;
+        for (int i = 0; i < c.convergenceSampleEvents.length; i++) {
+            append(c.convergenceSampleEvents[i], c.convergenceSampleTimes[i], c.convergenceSampleComforts[i],
+                    c.convergenceSamplePolicingTimes[i]);
+        }
+    }
+
+    /**
+     * Guarda no instantâneo a janela e as amostras atuais, da mais antiga para a mais recente.
+     */
+    void capture(Checkpoint c) {
+        c.converging = true;
+        c.convergenceThreshold = threshold;
+        c.convergenceWindowEvents = windowEvents;
+        c.convergenceWindowTime = windowTime;
+        c.convergenceStartEvents = startEvents;
+        c.convergenceStartTime = startTime;
+        c.convergenceSampleEvents = new long[size];
+        c.convergenceSampleTimes = new double[size];
+        c.convergenceSampleComforts = new double[size];
+        c.convergenceSamplePolicingTimes = new int[size];
+        for (int k = 0; k < size; k++) {
+            int i = index(k);
+            c.convergenceSampleEvents[k] = sampleEvents[i];
+            c.convergenceSampleTimes[k] = sampleTimes[i];
+            c.convergenceSampleComforts[k] = sampleComforts[i];
+            c.convergenceSamplePolicingTimes[k] = samplePolicingTimes[i];
+        }
+    }
+
+    /**
+     * Indica se este monitor usa a janela indicada.
+     */
+    boolean hasWindow(double threshold, long windowEvents, double windowTime) {
+        return this.threshold == threshold && this.windowEvents == windowEvents
+                && this.windowTime == Math.max(0, windowTime);
+    }
+
+    /**
+     * Regista o estado depois de um evento.
+     * @param events Número de eventos realizados até agora.
+     * @param time Instante atual.
+     * @param comfort Melhor conforto encontrado.
+     * @param policingTime Tempo de policiamento da melhor distribuição.
+     * @return true se a execução convergiu.
+     */
+    boolean record(long events, double time, double comfort, int policingTime) {
+        if (startEvents < 0) {
+            startEvents = events;
+            startTime = time;
+        }
+        if (size == 0 || comfort != comfortAt(size - 1) || policingTime != samplePolicingTimes[index(size - 1)]) {
+            append(events, time, comfort, policingTime);
+        }
+        if (events - startEvents < windowEvents || time - startTime < windowTime) {
+            return false;
+        }
+        // O valor no início da janela é a última amostra anterior aos dois limites; as anteriores já não são precisas.
+        long eventLimit = events - windowEvents;
+        double timeLimit = time - windowTime;
+        while (size > 1 && sampleEvents[index(1)] <= eventLimit && sampleTimes[index(1)] <= timeLimit) {
+            head = index(1);
+            size--;
+        }
+        double baseComfort = comfortAt(0);
+        int basePolicingTime = samplePolicingTimes[head];
+        double comfortGain = (comfort - baseComfort) / Math.max(Math.abs(baseComfort), MIN_COMFORT);
+        double policingGain = basePolicingTime == 0 ? 0 : (basePolicingTime - policingTime) / (double) basePolicingTime;
+        return comfortGain <= threshold && policingGain <= threshold;
+    }
+
+    private double comfortAt(int offset) {
+        return sampleComforts[index(offset)];
+    }
+
+    private int index(int offset) {
+        return (head + offset) & (sampleEvents.length - 1);
+    }
+
+    private void append(long events, double time, double comfort, int policingTime) {
+        if (size == sampleEvents.length) {
+            grow();
+        }
+        int i = index(size++);
+        sampleEvents[i] = events;
+        sampleTimes[i] = time;
+        sampleComforts[i] = comfort;
+        samplePolicingTimes[i] = policingTime;
+    }
+
+    /**
+     * Duplica o buffer, desenrolando-o para que a primeira amostra fique na posição 0.
+     */
+    private void grow() {
+        int capacity = sampleEvents.length * 2;
+        long[] events = new long[capacity];
+        double[] times = new double[capacity];
+        double[] comforts = new double[capacity];
+        int[] policingTimes = new int[capacity];
+        for (int k = 0; k < size; k++) {
+            int i = index(k);
+            events[k] = sampleEvents[i];
+            times[k] = sampleTimes[i];
+            comforts[k] = sampleComforts[i];
+            policingTimes[k] = samplePolicingTimes[i];
+        }
+        sampleEvents = events;
+        sampleTimes = times;
+        sampleComforts = comforts;
+        samplePolicingTimes = policingTimes;
+        head = 0;
+    }
+}
@@ -0,0 +1,184 @@
+package simulation;
+
+import java.util.Arrays;
+
+/**
+ * Fila de eventos pendentes implementada como um heap binário indexado (mínimo no topo).
+ * Cada evento é identificado por um inteiro estável, o que permite reagendar ou cancelar
+ * um evento em O(log n) sem procurar a sua posição no heap.
+ */
+class EventQueue {
+    // Instante agendado para cada evento, indexado pelo identificador do evento.
+    private double[] times;
+
+    // Heap propriamente dito: posição no heap -> identificador do evento.
+    private int[] heap;
+
+    // Posição de cada evento no heap, ou -1 se o evento não estiver agendado.
+    private int[] positions;
+
+    // Número de eventos atualmente agendados.
+    private int size;
+
+    /**
+     * Cria uma fila vazia com capacidade inicial para o número de identificadores indicado.
+     * @param capacity Capacidade inicial (cresce automaticamente quando necessário).
+     */
+    EventQueue(int capacity) {
+        capacity = Math.max(capacity, 16);
+        this.times = new double[capacity];
+        this.heap = new int[capacity];
+        this.positions = new int[capacity];
+        Arrays.fill(positions, -1);
+    }
+
+    /**
+     * Agenda o evento para o instante indicado. Se o evento já estiver agendado, o seu instante é atualizado.
+     * @param id Identificador do evento.
+     * @param time Instante em que o evento deve ocorrer.
+     */
+    void schedule(int id, double time) {
+        ensureCapacity(id + 1);
+        int pos = positions[id];
+        if (pos < 0) {
+            times[id] = time;
+            heap[size] = id;
+            positions[id] = size;
+            siftUp(size++);
+        } else {
+            double old = times[id];
+            times[id] = time;
+            if (time < old) {
+                siftUp(pos);
+            } else {
+                siftDown(pos);
+            }
+        }
+    }
+
+    /**
+     * Remove o evento da fila, caso esteja agendado.
+     * @param id Identificador do evento.
+     */
+    void cancel(int id) {
+        if (id >= positions.length) return;
+        int pos = positions[id];
+        if (pos < 0) return;
+        positions[id] = -1;
+        int last = heap[--size];
+        if (pos < size) {
+            heap[pos] = last;
+            positions[last] = pos;
+            siftUp(pos);
+            siftDown(positions[last]);
+        }
+    }
+
+    /**
+     * Retorna o instante do próximo evento.
+     * @return O menor instante agendado, ou infinito se a fila estiver vazia.
+     */
+    double peekTime() {
+        return size == 0 ? Double.POSITIVE_INFINITY : times[heap[0]];
+    }
+
+    /**
+     * Retorna o instante agendado para um evento.
+     */
+    double timeOf(int id) {
+        return times[id];
+    }
+
+    /**
+     * Remove e retorna o próximo evento.
+     * @return O identificador do evento com menor instante.
+     */
+    int poll() {
+        int id = heap[0];
+        cancel(id);
+        return id;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Copia os identificadores dos eventos pela ordem em que estão no heap.
+     * Juntamente com timeOf(), permite reconstruir a fila exatamente igual com restore().
+     */
+    int[] heapOrder() {
+        return Arrays.copyOf(heap, size);
+    }
+
+    /**
+     * Substitui o conteúdo da fila por um heap guardado com heapOrder(), mantendo exatamente a mesma ordem.
+     * @param ids Identificadores dos eventos pela ordem do heap.
+     * @param eventTimes Instante de cada evento, na mesma ordem.
+     */
+    void restore(int[] ids, double[] eventTimes) {
+        clear();
+        for (int i = 0; i < ids.length; i++) {
+            ensureCapacity(ids[i] + 1);
+            times[ids[i]] = eventTimes[i];
+            heap[i] = ids[i];
+            positions[ids[i]] = i;
+        }
+        size = ids.length;
+    }
+
+    /**
+     * Remove todos os eventos agendados.
+     */
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            positions[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    private void siftUp(int pos) {
+        int id = heap[pos];
+        double time = times[id];
+        while (pos > 0) {
+            int parent = (pos - 1) >>> 1;
+            int parentId = heap[parent];
+            if (times[parentId] <= time) break;
+            heap[pos] = parentId;
+            positions[parentId] = pos;
+            pos = parent;
+        }
+        heap[pos] = id;
+        positions[id] = pos;
+    }
+
+    private void siftDown(int pos) {
+        int id = heap[pos];
+        double time = times[id];
+        int half = size >>> 1;
+        while (pos < half) {
+            int child = 2 * pos + 1;
+            int right = child + 1;
+            if (right < size && times[heap[right]] < times[heap[child]]) {
+                child = right;
+            }
+            int childId = heap[child];
+            if (time <= times[childId]) break;
+            heap[pos] = childId;
+            positions[childId] = pos;
+            pos = child;
+        }
+        heap[pos] = id;
+        positions[id] = pos;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= positions.length) return;
+        int newCapacity = Math.max(capacity, positions.length * 2);
+        int oldLength = positions.length;
+        times = Arrays.copyOf(times, newCapacity);
+        heap = Arrays.copyOf(heap, newCapacity);
+        positions = Arrays.copyOf(positions, newCapacity);
+        Arrays.fill(positions, oldLength, newCapacity, -1);
+    }
+}
@@ -0,0 +1,115 @@
+package simulation;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Escreve periodicamente as métricas de uma simulação num ficheiro, numa thread própria.
+ * Ficheiros terminados em .json recebem um objeto JSON por linha; os restantes recebem linhas CSV com cabeçalho.
+ */
+public class MetricsReporter implements AutoCloseable {
+    private static final String CSV_HEADER = "timeMillis,deaths,reproductions,mutations,epidemics,events,"
+            + "meanLatencyNanos,p50LatencyNanos,p99LatencyNanos,population,maxPopulation,bytesPerEvent";
+
+    private final SimulationMetrics metrics;
+    private final BufferedWriter out;
+    private final boolean json;
+    private final long start = System.currentTimeMillis();
+    private final ScheduledExecutorService scheduler;
+    private volatile IOException failure;
+
+    /**
+     * Abre o ficheiro e começa a escrever as métricas a cada período.
+     * @param metrics As métricas a escrever.
+     * @param path Ficheiro de destino (substituído se já existir).
+     * @param periodMillis Intervalo entre escritas, em milissegundos.
+     * @throws IOException Se o ficheiro não puder ser criado.
+     */
+    public MetricsReporter(SimulationMetrics metrics, Path path, long periodMillis) throws IOException {
+        this.metrics = metrics;
+        this.json = path.getFileName().toString().endsWith(".json");
+        this.out = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+        if (!json) {
+            out.write(CSV_HEADER);
+            out.newLine();
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::report, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void report() {
+        if (failure != null) return;
+        try {
+            out.write(json ? formatJson() : formatCsv());
+            out.newLine();
+            out.flush();
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    private String formatCsv() {
+        return (System.currentTimeMillis() - start) + "," + metrics.getDeaths() + "," + metrics.getReproductions()
+                + "," + metrics.getMutations() + "," + metrics.getEpidemics() + "," + metrics.getEvents()
+                + "," + metrics.getMeanLatencyNanos() + "," + metrics.getLatencyP50Nanos()
+                + "," + metrics.getLatencyP99Nanos() + "," + metrics.getPopulationSize()
+                + "," + metrics.getMaxPopulationSize() + "," + metrics.getBytesPerEvent();
+    }
+
+    private String formatJson() {
+        StringBuilder text = new StringBuilder(512);
+        text.append("{\"timeMillis\":").append(System.currentTimeMillis() - start);
+        text.append(",\"events\":{\"death\":").append(metrics.getDeaths());
+        text.append(",\"reproduction\":").append(metrics.getReproductions());
+        text.append(",\"mutation\":").append(metrics.getMutations());
+        text.append(",\"epidemic\":").append(metrics.getEpidemics()).append('}');
+        text.append(",\"latencyNanos\":{\"mean\":").append(metrics.getMeanLatencyNanos());
+        text.append(",\"p50\":").append(metrics.getLatencyP50Nanos());
+        text.append(",\"p99\":").append(metrics.getLatencyP99Nanos()).append('}');
+        text.append(",\"population\":{\"current\":").append(metrics.getPopulationSize());
+        text.append(",\"max\":").append(metrics.getMaxPopulationSize()).append('}');
+        text.append(",\"bytesPerEvent\":").append(metrics.getBytesPerEvent());
+        text.append(",\"comfortLog2\":[");
+        long[] comfort = metrics.getComfortHistogram();
+        int last = comfort.length - 1;
+        while (last > 0 && comfort[last] == 0) last--; // Omite os intervalos vazios do fim.
+        for (int i = 0; i <= last; i++) {
+            if (i > 0) text.append(',');
+            text.append(comfort[i]);
+        }
+        return text.append("]}").toString();
+    }
+
+    /**
+     * Para a escrita periódica, escreve uma última linha com os valores finais e fecha o ficheiro.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        report();
+        try {
+            out.close();
+        } catch (IOException e) {
+            if (failure == null) failure = e;
+        }
+        if (failure != null) {
+            throw new UncheckedIOException(failure);
+        }
+    }
+}
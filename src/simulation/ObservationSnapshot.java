@@ -0,0 +1,90 @@
+package simulation;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Estado observável de uma simulação num dado instante, imutável e seguro para ler a partir de qualquer thread.
+ * A simulação publica um novo instantâneo a cada intervalo configurado de eventos (e no fim de cada runUntil)
+ * através de uma referência volatile: os leitores obtêm sempre um instantâneo completo e consistente, sem locks
+ * e sem pausar o ciclo de eventos. Os candidatos também são imutáveis; os seus arrays de sistemas são partilhados
+ * em copy-on-write com as patrulhas, que nunca os alteram depois de partilhados.
+ */
+public final class ObservationSnapshot {
+    private final double time;
+    private final long eventCount;
+    private final int populationSize;
+    private final int epidemicCount;
+    private final Simulation.StopReason stopReason;
+    private final boolean running;
+    private final List<Candidate> candidates;
+
+    ObservationSnapshot(double time, long eventCount, int populationSize, int epidemicCount, boolean running,
+                        Simulation.StopReason stopReason, Candidate[] candidates) {
+        this.time = time;
+        this.eventCount = eventCount;
+        this.populationSize = populationSize;
+        this.epidemicCount = epidemicCount;
+        this.running = running;
+        this.stopReason = stopReason;
+        this.candidates = Collections.unmodifiableList(Arrays.asList(candidates));
+    }
+
+    public double getTime() {
+        return time;
+    }
+
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    public int getPopulationSize() {
+        return populationSize;
+    }
+
+    public int getEpidemicCount() {
+        return epidemicCount;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return O motivo de paragem, ou null se a simulação estava ativa (ou chegou simplesmente ao instante final).
+     */
+    public Simulation.StopReason getStopReason() {
+        return stopReason;
+    }
+
+    /**
+     * @return As melhores distribuições, da melhor para a pior.
+     */
+    public List<Candidate> getCandidates() {
+        return candidates;
+    }
+
+    /**
+     * @return A melhor distribuição, ou null se ainda nenhuma foi avaliada.
+     */
+    public Candidate getBest() {
+        return candidates.isEmpty() ? null : candidates.get(0);
+    }
+
+    /**
+     * @return O conforto da melhor distribuição, ou -1 se ainda nenhuma foi avaliada.
+     */
+    public double getBestComfort() {
+        Candidate best = getBest();
+        return best == null ? -1 : best.getComfort();
+    }
+
+    /**
+     * @return O tempo de policiamento do império na melhor distribuição.
+     */
+    public int getBestPolicingTime() {
+        Candidate best = getBest();
+        return best == null ? 0 : best.getPolicingTime();
+    }
+}
@@ -0,0 +1,78 @@
+package simulation;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Escreve as observações da simulação numa thread própria, através de um buffer.
+ * O ciclo de eventos apenas coloca o texto numa fila, pelo que a escrita nunca o atrasa.
+ */
+class ObservationWriter implements AutoCloseable {
+    // Marcador colocado na fila para indicar à thread de escrita que deve terminar.
+    private static final String END = new String("END");
+
+    private final BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+    private final BufferedWriter out;
+    private final Thread thread;
+    private volatile IOException failure;
+
+    /**
+     * Cria o escritor e arranca a thread de escrita.
+     * @param stream Destino das observações (normalmente System.out).
+     */
+    ObservationWriter(OutputStream stream) {
+        this.out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), 1 << 16);
+        this.thread = new Thread(this::drain, "observation-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Coloca um bloco de texto na fila de escrita, sem bloquear.
+     * @param text O texto a escrever.
+     */
+    void submit(String text) {
+        queue.add(text);
+    }
+
+    private void drain() {
+        try {
+            while (true) {
+                String text = queue.take();
+                if (text == END) break;
+                out.write(text);
+                // Só força a escrita quando não há mais nada pendente.
+                if (queue.isEmpty()) {
+                    out.flush();
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Espera que todas as observações pendentes sejam escritas.
+     */
+    @Override
+    public void close() {
+        queue.add(END);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw new UncheckedIOException(failure);
+        }
+    }
+}
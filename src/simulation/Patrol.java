@@ -1,7 +1,7 @@
 package simulation;
 
-import java.util.ArrayList;
-import java.util.List;
+import config.CostMatrix;
+import random.Rng;
 
 
 /**
@@ -9,40 +9,132 @@ import java.util.List;
  * Cada patrulha gere um conjunto de sistemas e calcula o tempo necessário para pacificar cada um deles.
  */
 public class Patrol {
-    // Lista de sistemas planetários que esta patrulha está encarregue de pacificar.
-    private List<PlanetarySystem> systems = new ArrayList<>();
+    // Contexto da execução a que a patrulha pertence (tempos de pacificação, tmin, ...).
+    private final SimulationContext context;
+
+    // Matriz C partilhada por todas as patrulhas da simulação.
+    private final CostMatrix costs;
+
+    // Linha da matriz C usada por esta patrulha (as patrulhas descendentes herdam a linha do progenitor).
+    private int unit;
+
+    // Armazenamento (no heap ou fora dele) de onde vêm os blocos de sistemas desta execução.
+    private final SystemStorage storage;
+
+    // Identificadores dos sistemas planetários que esta patrulha está encarregue de pacificar.
+    private SystemStorage.Block systems;
+
+    // Número de sistemas atualmente em systems.
+    private int size;
 
     // Total de tempo gasto pela patrulha para pacificar todos os seus sistemas.
     private int totalPatrolTime;
 
-    // Tempo mínimo necessário para pacificar todos os sistemas, usado para calcular o conforto.
-    private static double tmin = 100;
+    // Assinatura da distribuição (independente da ordem dos sistemas), atualizada a cada alteração.
+    private long distributionHash;
+
+    // Indica se o bloco systems está partilhado com um instantâneo e tem de ser copiado antes de ser alterado.
+    private boolean shared;
+
+    // Identificador atribuído pelo motor de eventos discretos (-1 enquanto a patrulha não estiver agendada).
+    int eventId = -1;
+
+    // Posição da patrulha no array da população (-1 se não pertencer à população).
+    int populationIndex = -1;
+
+    // Conforto e taxas guardados, válidos enquanto o total não mudar e a versão de tmin for cacheTminVersion.
+    private boolean cacheValid;
+    private int cacheTminVersion;
+    private double comfort;
+    private double deathRate;
+    private double reproductionRate;
+    private double mutationRate;
+
+    // Indica se a patrulha pertence à população viva (e portanto conta para as patrulhas com conforto máximo).
+    private boolean alive;
+
+    // Indica se a patrulha foi contada como tendo conforto máximo.
+    private boolean comfortable;
+
+    /**
+     * Cria uma patrulha vazia.
+     * @param context Contexto da execução, que fornece a matriz C e o tmin.
+     * @param unit Linha da matriz C que define o custo de cada sistema para esta patrulha.
+     */
+    public Patrol(SimulationContext context, int unit) {
+        this(context, unit, 8);
+    }
+
+    /**
+     * Cria uma patrulha vazia com espaço para capacity sistemas, evitando crescer o bloco várias vezes
+     * quando já se sabe quantos sistemas vai ter.
+     */
+    Patrol(SimulationContext context, int unit, int capacity) {
+        this.context = context;
+        this.costs = context.getCosts();
+        this.storage = context.getStorage();
+        this.unit = unit;
+        this.systems = storage.allocate(Math.max(capacity, 8));
+    }
 
     /**
-     * Define o tempo mínimo global para todos os sistemas, baseado em dados externos ou cálculos.
-     * @param newTmin O novo valor de tempo mínimo.
+     * Esvazia a patrulha para ser reutilizada com outra linha da matriz C, mantendo o bloco de sistemas
+     * (a menos que esteja partilhado com um instantâneo).
+     * @param unit A nova linha da matriz C.
      */
-    public static void setTmin(double newTmin) {
-        tmin = newTmin;
+    void reset(int unit) {
+        if (shared) {
+            dropSystems();
+            systems = storage.allocate(8);
+        }
+        this.unit = unit;
+        size = 0;
+        totalPatrolTime = 0;
+        distributionHash = 0;
+        eventId = -1;
+        cacheValid = false;
+        alive = false;
+        comfortable = false;
+        updateComfortable();
     }
 
     /**
      * Adiciona um sistema planetário à patrulha e aumenta o tempo total de patrulha conforme necessário.
-     * @param system O sistema planetário a ser adicionado.
+     * @param system O identificador do sistema planetário a ser adicionado.
      */
-    public void addSystem(PlanetarySystem system) {
-        systems.add(system);
-        totalPatrolTime += system.getPacificationTime();
+    public void addSystem(int system) {
+        if (size == systems.capacity() || shared) {
+            replaceSystems(Math.max(size * 2, 8));
+        }
+        systems.set(size++, system);
+        totalPatrolTime += costs.get(unit, system);
+        distributionHash += mix(system);
+        totalChanged();
     }
 
     /**
-     * Remove um sistema planetário da patrulha e reduz o tempo total de patrulha.
-     * @param system O sistema planetário a ser removido.
+     * Remove o sistema na posição indicada, trocando-o com o último para evitar deslocar o array.
+     * @param index A posição do sistema a remover.
+     * @return O identificador do sistema removido.
      */
-    public void removeSystem(PlanetarySystem system) {
-        if (systems.remove(system)) {
-            totalPatrolTime -= system.getPacificationTime();
+    public int removeSystemAt(int index) {
+        if (shared) {
+            replaceSystems(systems.capacity());
         }
+        int system = systems.get(index);
+        systems.set(index, systems.get(--size));
+        totalPatrolTime -= costs.get(unit, system);
+        distributionHash -= mix(system);
+        totalChanged();
+        return system;
+    }
+
+    /**
+     * Obtém a linha da matriz C usada por esta patrulha.
+     * @return O índice da patrulha na matriz C.
+     */
+    public int getUnit() {
+        return unit;
     }
 
     /**
@@ -59,54 +151,273 @@ public class Patrol {
      * @return O valor de conforto da patrulha.
      */
     public double getComfort() {
-        if (totalPatrolTime == 0) return 1; // Se não há tempo de patrulha, conforto é máximo.
-        return tmin / totalPatrolTime;
+        refreshCache();
+        return comfort;
     }
 
     /**
-     * Obtém uma lista dos sistemas planetários que a patrulha está a monitorizar.
-     * @return Uma cópia da lista de sistemas planetários.
+     * Taxa de mortalidade da patrulha, que diminui à medida que o conforto aumenta.
      */
-    public List<PlanetarySystem> getSystems() {
-        return new ArrayList<>(systems);
+    public double getDeathRate() {
+        refreshCache();
+        return deathRate;
     }
 
     /**
-     * Remove aleatoriamente um sistema planetário da patrulha e o retorna.
-     * @return O sistema planetário removido, ou null se não houver sistemas.
+     * Taxa de reprodução da patrulha, que aumenta com o conforto.
      */
-    public PlanetarySystem removeRandomSystem() {
-        if (systems.isEmpty()) return null;
-        return systems.remove((int) (Math.random() * systems.size()));
+    public double getReproductionRate() {
+        refreshCache();
+        return reproductionRate;
     }
 
     /**
-     * Remove uma quantidade específica de sistemas planetários aleatoriamente.
-     * @param count O número de sistemas a remover.
-     * @return Uma lista dos sistemas planetários removidos.
+     * Taxa de mutação da patrulha, que aumenta com o conforto.
      */
-    public List<PlanetarySystem> removeRandomSystems(int count) {
-        List<PlanetarySystem> removedSystems = new ArrayList<>();
-        for (int i = 0; i < count; i++) {
-            PlanetarySystem removed = removeRandomSystem();
-            if (removed != null) {
-                removedSystems.add(removed);
-            } else {
-                break; // Para de remover se não houver mais sistemas.
+    public double getMutationRate() {
+        refreshCache();
+        return mutationRate;
+    }
+
+    /**
+     * Recalcula o conforto e as taxas apenas se o total de patrulhamento ou o tmin mudaram desde o último cálculo.
+     */
+    private void refreshCache() {
+        int tminVersion = context.getTminVersion();
+        if (cacheValid && cacheTminVersion == tminVersion) return;
+        // Se não há tempo de patrulha, conforto é máximo.
+        comfort = totalPatrolTime == 0 ? 1 : context.getTmin() / totalPatrolTime;
+        deathRate = Math.exp(-context.getMu() * (1 - Math.log(1 - comfort)));
+        double logComfort = Math.log(comfort);
+        reproductionRate = Math.exp(-context.getRho() * (1 - logComfort));
+        mutationRate = Math.exp(-context.getDelta() * (1 - logComfort));
+        cacheValid = true;
+        cacheTminVersion = tminVersion;
+    }
+
+    /**
+     * Indica se o conforto e as taxas guardados correspondem ao total e ao tmin atuais.
+     */
+    boolean hasCachedRates() {
+        return cacheValid && cacheTminVersion == context.getTminVersion();
+    }
+
+    /**
+     * Guarda o conforto e as taxas calculados em bloco por RateKernel para o total e o tmin atuais.
+     */
+    void setRates(double comfort, double deathRate, double reproductionRate, double mutationRate) {
+        this.comfort = comfort;
+        this.deathRate = deathRate;
+        this.reproductionRate = reproductionRate;
+        this.mutationRate = mutationRate;
+        cacheValid = true;
+        cacheTminVersion = context.getTminVersion();
+    }
+
+    /**
+     * Invalida os valores guardados e atualiza a contagem de patrulhas com conforto máximo.
+     */
+    private void totalChanged() {
+        cacheValid = false;
+        updateComfortable();
+    }
+
+    /**
+     * Volta a verificar se a patrulha tem conforto máximo (chamado também quando o tmin muda).
+     */
+    void updateComfortable() {
+        boolean now = totalPatrolTime == 0 || totalPatrolTime <= context.getTmin();
+        if (now != comfortable) {
+            comfortable = now;
+            if (alive) {
+                context.adjustComfortablePatrols(now ? 1 : -1);
             }
         }
-        return removedSystems;
     }
 
     /**
-     * Clona os sistemas planetários de outra patrulha para esta patrulha.
-     * @param other A outra patrulha de onde os sistemas serão clonados.
+     * Indica se a patrulha pertence à população viva.
      */
-    public void cloneSystemsFrom(Patrol other) {
-        for (PlanetarySystem system : other.getSystems()) {
-            this.addSystem(new PlanetarySystem(system.getPacificationTime()));
+    boolean isAlive() {
+        return alive;
+    }
+
+    /**
+     * Marca a patrulha como parte (ou não) da população viva.
+     */
+    void setAlive(boolean alive) {
+        if (alive != this.alive) {
+            this.alive = alive;
+            if (comfortable) {
+                context.adjustComfortablePatrols(alive ? 1 : -1);
+            }
         }
     }
-}
 
+    /**
+     * Obtém o número de sistemas planetários que a patrulha está a monitorizar.
+     * @return O número de sistemas.
+     */
+    public int getSystemCount() {
+        return size;
+    }
+
+    /**
+     * Obtém o identificador do sistema na posição indicada.
+     * @param index A posição, entre 0 e getSystemCount() - 1.
+     * @return O identificador do sistema.
+     */
+    public int getSystem(int index) {
+        return systems.get(index);
+    }
+
+    /**
+     * Retorna a assinatura da distribuição desta patrulha: duas patrulhas com a mesma linha da matriz C
+     * e os mesmos sistemas (em qualquer ordem) têm a mesma assinatura.
+     * @return A assinatura da distribuição.
+     */
+    public long getDistributionHash() {
+        return distributionHash + mix(~unit);
+    }
+
+    /**
+     * Calcula a assinatura de uma distribuição guardada fora de uma patrulha, igual à de getDistributionHash().
+     * @param systems Os sistemas da distribuição (apenas as primeiras count posições são usadas).
+     * @param count O número de sistemas.
+     * @param unit A linha da matriz C da distribuição.
+     * @return A assinatura da distribuição.
+     */
+    static long distributionHash(int[] systems, int count, int unit) {
+        long hash = 0;
+        for (int i = 0; i < count; i++) {
+            hash += mix(systems[i]);
+        }
+        return hash + mix(~unit);
+    }
+
+    /**
+     * Entrega o array interno de sistemas a um candidato, sem o copiar.
+     * A patrulha passa a copiá-lo antes da próxima alteração (copy-on-write).
+     * Fora do heap não há array para partilhar, por isso é entregue uma cópia.
+     * @return O array de sistemas; apenas as primeiras getSystemCount() posições são válidas.
+     */
+    int[] shareSystems() {
+        int[] array = systems.array();
+        if (array == null) {
+            return systems.toArray(size);
+        }
+        shared = true;
+        return array;
+    }
+
+    /**
+     * Entrega o bloco de sistemas (no heap ou fora dele) para um instantâneo, sem o copiar.
+     * A patrulha passa a copiá-lo antes da próxima alteração (copy-on-write), e o bloco antigo só volta
+     * a ser reaproveitado depois de o instantâneo ser escrito.
+     * @return O bloco de sistemas; apenas as primeiras getSystemCount() posições são válidas.
+     */
+    SystemStorage.Block shareBlock() {
+        shared = true;
+        return systems;
+    }
+
+    /**
+     * Passa os sistemas para um bloco novo com a capacidade indicada, devolvendo o antigo ao armazenamento
+     * se não estiver partilhado com um instantâneo.
+     */
+    private void replaceSystems(int capacity) {
+        SystemStorage.Block block = storage.allocate(capacity);
+        block.copyFrom(systems, 0, 0, size);
+        dropSystems();
+        systems = block;
+    }
+
+    /**
+     * Larga o bloco atual: volta logo ao armazenamento ou, se estiver partilhado com um instantâneo,
+     * quando a escrita terminar (SystemStorage.retire()).
+     */
+    private void dropSystems() {
+        if (shared) {
+            storage.retire(systems);
+        } else {
+            storage.release(systems);
+        }
+        shared = false;
+    }
+
+    /**
+     * Mistura os bits do identificador de um sistema, para que a soma das misturas sirva de assinatura.
+     * A constante somada à entrada garante que nenhum sistema (nem o sistema 0) tem mistura nula.
+     */
+    private static long mix(long value) {
+        value += 0x9e3779b97f4a7c15L;
+        value = (value ^ (value >>> 33)) * 0xff51afd7ed558ccdL;
+        value = (value ^ (value >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return value ^ (value >>> 33);
+    }
 
+    /**
+     * Remove aleatoriamente um sistema planetário da patrulha e o retorna.
+     * @return O identificador do sistema removido, ou -1 se não houver sistemas.
+     */
+    public int removeRandomSystem() {
+        if (size == 0) return -1;
+        return removeSystemAt(context.getRandom().nextInt(size));
+    }
+
+    /**
+     * Torna esta patrulha (vazia) descendente de parent: herda os sistemas do progenitor menos count
+     * sistemas escolhidos aleatoriamente, que são escritos em removed para serem distribuídos.
+     * Faz uma única cópia para o array desta patrulha e atualiza o total, a assinatura e as taxas uma só vez,
+     * a partir do total do progenitor e apenas dos sistemas retirados. O progenitor não é alterado.
+     * @param parent A patrulha progenitora.
+     * @param count O número de sistemas a retirar.
+     * @param removed Array onde são escritos os identificadores retirados (com pelo menos count posições).
+     * @return O número de sistemas efetivamente retirados.
+     */
+    int inheritFrom(Patrol parent, int count, int[] removed) {
+        if (size != 0) {
+            throw new IllegalStateException("Only an empty patrol can inherit systems");
+        }
+        int n = parent.size;
+        if (systems.capacity() < n || shared) {
+            dropSystems();
+            systems = storage.allocate(Math.max(n, 8));
+        }
+        systems.copyFrom(parent.systems, 0, 0, n);
+
+        // Fisher-Yates parcial: cada sistema sorteado troca com o último ainda herdado.
+        Rng random = context.getRandom();
+        int removedCount = Math.min(count, n);
+        int end = n;
+        for (int i = 0; i < removedCount; i++) {
+            int index = random.nextInt(end);
+            removed[i] = systems.get(index);
+            systems.set(index, systems.get(--end));
+        }
+        size = end;
+
+        if (parent.unit == unit) {
+            int total = parent.totalPatrolTime;
+            long hash = parent.distributionHash;
+            for (int i = 0; i < removedCount; i++) {
+                total -= costs.get(unit, removed[i]);
+                hash -= mix(removed[i]);
+            }
+            totalPatrolTime = total;
+            distributionHash = hash;
+        } else {
+            int total = 0;
+            long hash = 0;
+            for (int i = 0; i < size; i++) {
+                int system = systems.get(i);
+                total += costs.get(unit, system);
+                hash += mix(system);
+            }
+            totalPatrolTime = total;
+            distributionHash = hash;
+        }
+        totalChanged();
+        return removedCount;
+    }
+}
@@ -0,0 +1,112 @@
+package simulation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import random.Rng;
+
+/**
+ * População de patrulhas vivas, guardada num array compacto.
+ * Cada patrulha sabe a sua posição no array, o que permite removê-la em O(1) trocando-a com a última,
+ * e escolher uma patrulha ao acaso em O(1), sem ciclos de rejeição.
+ *
+ * Para percorrer a população enquanto esta muda, deve usar-se os índices do fim para o início:
+ * uma remoção na posição i só move para i uma patrulha que já foi visitada ou que foi acrescentada
+ * durante o percurso.
+ */
+class Population {
+    private Patrol[] patrols;
+    private int size;
+
+    Population(int capacity) {
+        this.patrols = new Patrol[Math.max(capacity, 16)];
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    Patrol get(int index) {
+        return patrols[index];
+    }
+
+    /**
+     * Acrescenta uma patrulha ao fim da população.
+     */
+    void add(Patrol patrol) {
+        if (size == patrols.length) {
+            patrols = Arrays.copyOf(patrols, size * 2);
+        }
+        patrol.populationIndex = size;
+        patrols[size++] = patrol;
+    }
+
+    /**
+     * Remove a patrulha em O(1), movendo a última patrulha para o seu lugar.
+     * @return true se a patrulha pertencia à população.
+     */
+    boolean remove(Patrol patrol) {
+        int index = patrol.populationIndex;
+        if (index < 0 || index >= size || patrols[index] != patrol) return false;
+        Patrol last = patrols[--size];
+        patrols[index] = last;
+        last.populationIndex = index;
+        patrols[size] = null;
+        patrol.populationIndex = -1;
+        return true;
+    }
+
+    /**
+     * Coloca a patrulha na posição indicada (usado para compactar a população no lugar).
+     */
+    void set(int index, Patrol patrol) {
+        patrols[index] = patrol;
+        patrol.populationIndex = index;
+    }
+
+    /**
+     * Mantém apenas as primeiras newSize patrulhas. As restantes devem já ter sido tratadas pelo chamador.
+     */
+    void truncate(int newSize) {
+        Arrays.fill(patrols, newSize, size, null);
+        size = newSize;
+    }
+
+    /**
+     * Escolhe uma patrulha ao acaso.
+     */
+    Patrol sample(Rng random) {
+        return patrols[random.nextInt(size)];
+    }
+
+    /**
+     * Escolhe ao acaso uma patrulha diferente da indicada, em O(1).
+     * Se a patrulha excluída não pertencer à população, qualquer patrulha pode ser escolhida.
+     * @return A patrulha escolhida, ou null se não existir outra patrulha.
+     */
+    Patrol sampleOther(Patrol excluded, Rng random) {
+        int index = excluded.populationIndex;
+        boolean member = index >= 0 && index < size && patrols[index] == excluded;
+        if (!member) {
+            return size == 0 ? null : sample(random);
+        }
+        if (size < 2) return null;
+        int choice = random.nextInt(size - 1);
+        return patrols[choice >= index ? choice + 1 : choice];
+    }
+
+    /**
+     * Retorna uma cópia da população numa lista.
+     */
+    List<Patrol> toList() {
+        List<Patrol> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(patrols[i]);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,79 @@
+package simulation;
+
+/**
+ * Avaliação em bloco do conforto e das taxas de mortalidade, reprodução e mutação de muitas patrulhas,
+ * a partir dos seus tempos totais guardados num array (estrutura de arrays em vez de um objeto de cada vez).
+ * Usada nas passagens pela população inteira: agendamento inicial, epidemias e mudanças de tmin.
+ *
+ * Esta implementação é escalar e usa exatamente as fórmulas de Patrol, pelo que os resultados são idênticos
+ * bit a bit aos calculados patrulha a patrulha. Se a versão vetorial (VectorRateKernel, compilada à parte
+ * no diretório incubator/) estiver no classpath e o módulo jdk.incubator.vector estiver carregado
+ * (java --add-modules jdk.incubator.vector), instance() devolve essa versão,
+ * cujos exp e log podem diferir na última casa decimal: execuções com semente só são reproduzíveis
+ * com o mesmo tipo de kernel. A propriedade -Dsimulation.scalarRates=true força a versão escalar.
+ */
+class RateKernel {
+    private static final RateKernel INSTANCE = create();
+
+    /**
+     * Retorna o kernel a usar nesta JVM (vetorial, se disponível, ou escalar).
+     */
+    static RateKernel instance() {
+        return INSTANCE;
+    }
+
+    private static RateKernel create() {
+        if (!Boolean.getBoolean("simulation.scalarRates")
+                && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                // Carregada por reflexão: sem o módulo, a classe nem chega a ser resolvida.
+                return (RateKernel) Class.forName("simulation.VectorRateKernel").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // Sem suporte vetorial utilizável, fica a versão escalar.
+            }
+        }
+        return new RateKernel();
+    }
+
+    /**
+     * Indica se este kernel usa instruções vetoriais.
+     */
+    boolean isVectorized() {
+        return false;
+    }
+
+    /**
+     * Calcula o conforto e as três taxas das primeiras n patrulhas numa só passagem.
+     * @param totals Tempo total de patrulhamento de cada patrulha.
+     * @param n Número de patrulhas a avaliar.
+     * @param tmin O tmin da execução.
+     * @param mu Coeficiente da taxa de mortalidade.
+     * @param rho Coeficiente da taxa de reprodução.
+     * @param delta Coeficiente da taxa de mutação.
+     * @param comfort Destino do conforto de cada patrulha.
+     * @param death Destino da taxa de mortalidade.
+     * @param reproduction Destino da taxa de reprodução.
+     * @param mutation Destino da taxa de mutação.
+     */
+    void evaluate(double[] totals, int n, double tmin, double mu, double rho, double delta,
+                  double[] comfort, double[] death, double[] reproduction, double[] mutation) {
+        evaluateScalar(totals, 0, n, tmin, mu, rho, delta, comfort, death, reproduction, mutation);
+    }
+
+    /**
+     * Versão escalar, usada também para as posições que não preenchem um vetor completo.
+     */
+    static void evaluateScalar(double[] totals, int from, int to, double tmin, double mu, double rho, double delta,
+                               double[] comfort, double[] death, double[] reproduction, double[] mutation) {
+        for (int i = from; i < to; i++) {
+            double total = totals[i];
+            // Se não há tempo de patrulha, conforto é máximo.
+            double c = total == 0 ? 1 : tmin / total;
+            comfort[i] = c;
+            death[i] = Math.exp(-mu * (1 - Math.log(1 - c)));
+            double logComfort = Math.log(c);
+            reproduction[i] = Math.exp(-rho * (1 - logComfort));
+            mutation[i] = Math.exp(-delta * (1 - logComfort));
+        }
+    }
+}
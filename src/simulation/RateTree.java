@@ -0,0 +1,131 @@
+package simulation;
+
+import java.util.Arrays;
+
+/**
+ * Árvore de Fenwick (árvore binária indexada) sobre as taxas totais de evento de cada patrulha,
+ * indexadas pelo identificador de eventos. Permite alterar a taxa de uma patrulha e escolher uma
+ * patrulha com probabilidade proporcional à sua taxa, ambos em O(log n), e obter a soma em O(1).
+ *
+ * As somas parciais acumulam erros de arredondamento à medida que as folhas mudam, por isso a árvore
+ * é reconstruída a partir das folhas (em O(n)) depois de um número de alterações igual à capacidade,
+ * o que mantém o custo amortizado em O(1) por alteração.
+ */
+class RateTree {
+    // Taxa de cada folha, tal como foi definida.
+    private double[] leaves;
+
+    // Somas parciais de Fenwick, indexadas a partir de 1.
+    private double[] tree;
+
+    // Número de folhas utilizáveis (potência de 2, para a descida em select()).
+    private int capacity;
+
+    // Alterações desde a última reconstrução.
+    private int updates;
+
+    // Soma de todas as folhas.
+    private double total;
+
+    // Parte de u que ficou dentro da folha escolhida pelo último select().
+    private double remainder;
+
+    RateTree(int capacity) {
+        this.capacity = Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1;
+        this.leaves = new double[this.capacity];
+        this.tree = new double[this.capacity + 1];
+    }
+
+    /**
+     * Define a taxa da folha indicada.
+     * @param index O identificador da patrulha.
+     * @param rate A nova taxa (não negativa).
+     */
+    void set(int index, double rate) {
+        if (index >= capacity) {
+            grow(index + 1);
+        }
+        double change = rate - leaves[index];
+        if (change == 0) return;
+        leaves[index] = rate;
+        if (++updates >= capacity) {
+            rebuild();
+            return;
+        }
+        for (int i = index + 1; i <= capacity; i += i & -i) {
+            tree[i] += change;
+        }
+        total += change;
+    }
+
+    /**
+     * Retorna a soma de todas as taxas.
+     */
+    double total() {
+        return total;
+    }
+
+    /**
+     * Escolhe a folha onde cai u, ou seja, a primeira folha i tal que a soma das folhas 0..i excede u.
+     * Com u uniforme em [0, total()), cada folha é escolhida com probabilidade proporcional à sua taxa.
+     * A parte de u que fica dentro da folha escolhida fica disponível em remainder().
+     * @param u Um valor em [0, total()).
+     * @return O índice da folha escolhida, sempre com taxa positiva, ou -1 se todas as taxas forem nulas.
+     */
+    int select(double u) {
+        int position = 0;
+        for (int step = capacity; step > 0; step >>= 1) {
+            int next = position + step;
+            if (next <= capacity && tree[next] <= u) {
+                position = next;
+                u -= tree[next];
+            }
+        }
+        // Por arredondamento, a descida pode passar a última folha positiva ou parar numa folha nula.
+        if (position >= capacity || leaves[position] <= 0) {
+            int index = Math.min(position, capacity - 1);
+            while (index >= 0 && leaves[index] <= 0) {
+                index--;
+            }
+            if (index < 0) return -1;
+            remainder = Math.nextDown(leaves[index]); // u estava no fim desta folha.
+            return index;
+        }
+        remainder = Math.min(Math.max(u, 0), leaves[position]);
+        return position;
+    }
+
+    double remainder() {
+        return remainder;
+    }
+
+    /**
+     * Recalcula as somas parciais e o total a partir das folhas, em O(n), eliminando o erro acumulado.
+     */
+    void rebuild() {
+        System.arraycopy(leaves, 0, tree, 1, capacity);
+        for (int i = 1; i <= capacity; i++) {
+            int parent = i + (i & -i);
+            if (parent <= capacity) {
+                tree[parent] += tree[i];
+            }
+        }
+        double sum = 0;
+        for (double leaf : leaves) {
+            sum += leaf;
+        }
+        total = sum;
+        updates = 0;
+    }
+
+    private void grow(int minimum) {
+        int newCapacity = capacity;
+        while (newCapacity < minimum) {
+            newCapacity <<= 1;
+        }
+        leaves = Arrays.copyOf(leaves, newCapacity);
+        tree = new double[newCapacity + 1];
+        capacity = newCapacity;
+        rebuild();
+    }
+}
@@ -1,84 +1,277 @@
 package simulation;
 
+import config.CostMatrix;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import random.Rng;
 
 /**
  * A classe Simulation gerencia a simulação de várias patrulhas que monitorizam sistemas planetários.
  * Ela controla o fluxo de simulação, aplicando regras de reprodução, mutação e mortalidade.
  */
 public class Simulation {
-    private List<Patrol> patrols; // Lista que armazena todas as patrulhas na simulação.
-    private double[][] patrollingTimes; // Matriz que armazena o tempo necessário para cada patrulha patrulhar cada sistema planetário.
+    private final Population patrols; // População que armazena todas as patrulhas vivas na simulação.
+    private final SimulationContext context; // Estado próprio desta execução (tmin, tempos, gerador aleatório, contadores).
+    private int[] removedSystems = new int[16]; // Área de trabalho reutilizada para os sistemas retirados numa reprodução.
     private boolean isRunning; // Controla se a simulação está ativa.
-    private int currentTime; // Contador que registra o tempo atual dentro da simulação.
-    private final Random random; // Objeto para gerar números aleatórios, usado em várias funções estocásticas.
-    private final int MAX_STEPS; // O número máximo de passos (iterações) que a simulação pode executar.
+    private double currentTime; // Instante atual da simulação (passos no modo fixo, tempo contínuo no modo de eventos).
+    private final Rng random; // Objeto para gerar números aleatórios, usado em várias funções estocásticas.
+    private final int MAX_STEPS; // O número máximo de passos (no modo fixo) ou de eventos (no modo de eventos).
     private final int MAX_POPULATION; // O número máximo de patrulhas que podem existir antes de desencadear uma epidemia.
     private final double mu; // Coeficiente que afeta a taxa de mortalidade das patrulhas.
     private final double rho; // Coeficiente que afeta a taxa de reprodução das patrulhas.
     private final double delta; // Coeficiente que afeta a taxa de mutação das patrulhas.
 
+    // Tipos de evento agendados para cada patrulha no modo de eventos discretos.
+    static final int DEATH = 0;
+    static final int REPRODUCTION = 1;
+    static final int MUTATION = 2;
+    private static final int EVENT_TYPES = 3;
+
+    /**
+     * Motores disponíveis para o modo de eventos contínuo (runUntil).
+     */
+    public enum Engine {
+        /** Três instantes exponenciais por patrulha numa fila de prioridade indexada. */
+        EVENT_QUEUE,
+        /**
+         * Método direto de Gillespie: a soma das taxas de todas as patrulhas numa árvore de Fenwick dá o instante
+         * do próximo evento, e a patrulha que o realiza é escolhida em O(log n) proporcionalmente à sua taxa.
+         */
+        DIRECT_METHOD,
+        /**
+         * Aproximação por saltos de tempo (tau-leaping): em cada salto, o número de mortes, reproduções e mutações
+         * de cada grupo de patrulhas com conforto semelhante é sorteado de uma distribuição de Poisson e aplicado
+         * de uma vez. Muito mais rápido com populações grandes, à custa de um pequeno enviesamento estatístico.
+         */
+        TAU_LEAPING
+    }
+
+    /**
+     * Onde são guardadas as listas de sistemas das patrulhas.
+     */
+    public enum Storage {
+        /** Arrays no heap, recolhidos pelo GC. */
+        HEAP,
+        /**
+         * Memória nativa reservada para a execução e reaproveitada entre patrulhas, libertada por close().
+         * Permite correr instâncias muito grandes com um heap pequeno e pausas do GC curtas.
+         * Requer as classes de incubator/ e java --add-modules jdk.incubator.foreign.
+         */
+        OFF_HEAP
+    }
+
+    private final EventQueue events; // Fila de eventos pendentes, ordenada pelo instante de ocorrência.
+    private int[] freeEventIds = new int[16]; // Identificadores de patrulhas libertados e prontos a reutilizar.
+    private int freeEventCount; // Número de identificadores livres em freeEventIds.
+    private int nextEventId; // Próximo identificador ainda nunca atribuído.
+    private boolean eventDriven; // Indica se a simulação está a correr no modo de eventos discretos.
+    private Engine engine = Engine.EVENT_QUEUE; // Motor usado por runUntil.
+    private final RateTree rates; // Taxa total de cada patrulha, indexada pelo identificador (só no método direto).
+
+    // Número de grupos de conforto usados em cada salto do modo TAU_LEAPING (conforto em [0, 1] dividido em partes iguais).
+    private static final int LEAP_BUCKETS = 64;
+
+    // Abaixo deste número esperado de eventos por salto, o modo TAU_LEAPING realiza eventos um a um (de forma exata).
+    private static final double MIN_LEAP_EVENTS = 10;
+
+    // Variação relativa máxima da população permitida num salto (ver setLeapTolerance).
+    private double leapTolerance = 0.03;
+
+    // Áreas de trabalho de cada salto: patrulhas agrupadas por conforto e taxas somadas de cada grupo.
+    private Patrol[] leapMembers = new Patrol[16];
+    private final int[] bucketStart = new int[LEAP_BUCKETS + 1];
+    private final double[] bucketDeath = new double[LEAP_BUCKETS];
+    private final double[] bucketReproduction = new double[LEAP_BUCKETS];
+    private final double[] bucketMutation = new double[LEAP_BUCKETS];
+    private int[] memberBucket = new int[16];
+    private final List<Patrol> touched = new ArrayList<>(); // Patrulhas alteradas pelo evento em curso.
+    private Patrol[] patrolsById = new Patrol[16]; // Patrulhas indexadas pelo identificador de eventos.
+
+    // Parâmetros da epidemia: quantas patrulhas sobrevivem sempre e com que probabilidade sobrevivem as restantes.
+    private int epidemicSurvivors = 5;
+    private double epidemicSurvivalProbability = 0;
+
+    // Área de trabalho reutilizada na seleção dos sobreviventes de uma epidemia.
+    private int[] selectionIndex = new int[16];
+
+    // Tempos totais e taxas de toda a população (estrutura de arrays), avaliados em bloco por RateKernel.
+    private final RateKernel rateKernel = RateKernel.instance();
+    private double[] bulkTotals = new double[16];
+    private double[] bulkComfort = new double[16];
+    private double[] bulkDeath = new double[16];
+    private double[] bulkReproduction = new double[16];
+    private double[] bulkMutation = new double[16];
+
+    // Número de candidatos avaliados pela mutação guiada (sistemas a retirar e patrulhas de destino), ou 0 para a
+    // mutação aleatória original.
+    private int mutationCandidates;
+
+    // Patrulhas mortas prontas a ser reutilizadas pela reprodução, para evitar novas alocações.
+    private Patrol[] pool = new Patrol[16];
+    private int pooled;
+
+    // Número de distribuições candidatas guardadas (a melhor mais as restantes).
+    private static final int CANDIDATE_COUNT = 6;
+
+    // Melhores distribuições encontradas até ao momento, propostas sempre que uma patrulha é alterada.
+    private final CandidateStore candidates = new CandidateStore(CANDIDATE_COUNT);
+
+    // Métricas do motor de eventos, ou null quando a instrumentação está desligada.
+    private SimulationMetrics metrics;
+    private int reportedPopulation; // População desta simulação já somada à população das métricas.
+
+    // Deteção de convergência da melhor distribuição, ou null se a execução só termina pelas outras condições.
+    private ConvergenceMonitor convergence;
+
+    /**
+     * Motivos pelos quais uma simulação pode terminar antes do instante final.
+     */
+    public enum StopReason {
+        MAX_STEPS("maximum number of steps reached"),
+        EXTINCTION("population extinct"),
+        COMFORT_REACHED("a patrol reached maximum comfort"),
+        CONVERGED("best distribution stopped improving");
+
+        private final String description;
+
+        StopReason(String description) {
+            this.description = description;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+    }
+
+    // Motivo pelo qual a simulação terminou, ou null enquanto estiver ativa.
+    private StopReason stopReason;
+
+    // Último instantâneo publicado para leitura a partir de outras threads (escrito apenas pelo ciclo de eventos).
+    private volatile ObservationSnapshot snapshot;
+
+    // Eventos entre publicações de instantâneos (0 para publicar apenas no fim de cada runUntil).
+    private long snapshotInterval;
+    private long eventsUntilSnapshot;
+
+    // Escrita do último instantâneo pedido a writeCheckpoint(), ou null se ainda não houve nenhum.
+    private CompletableFuture<Void> lastCheckpoint;
+
     /**
      * Construtor da classe Simulation.
-     * @param maxSteps O número máximo de passos que a simulação pode executar.
+     * @param maxSteps O número máximo de passos (modo fixo) ou de eventos (runUntil) que a simulação pode executar.
+     * @param maxPopulation O número máximo de patrulhas antes de uma epidemia ser disparada.
+     * @param mu Taxa de mortalidade das patrulhas.
+     * @param rho Taxa de reprodução das patrulhas.
+     * @param delta Taxa de mutação das patrulhas.
+     * @param costs Matriz C com o tempo que cada patrulha leva a pacificar cada sistema planetário.
+     */
+    public Simulation(int maxSteps, int maxPopulation, double mu, double rho, double delta, CostMatrix costs) {
+        this(maxSteps, maxPopulation, mu, rho, delta, costs, new Rng());
+    }
+
+    /**
+     * Construtor da classe Simulation com um gerador de números aleatórios próprio, para execuções reproduzíveis.
+     * @param maxSteps O número máximo de passos (modo fixo) ou de eventos (runUntil) que a simulação pode executar.
      * @param maxPopulation O número máximo de patrulhas antes de uma epidemia ser disparada.
      * @param mu Taxa de mortalidade das patrulhas.
      * @param rho Taxa de reprodução das patrulhas.
      * @param delta Taxa de mutação das patrulhas.
-     * @param numberOfPatrols Número inicial de patrulhas.
-     * @param numberOfSystems Número de sistemas planetários.
+     * @param costs Matriz C com o tempo que cada patrulha leva a pacificar cada sistema planetário.
+     * @param random Gerador usado exclusivamente por esta simulação.
+     */
+    public Simulation(int maxSteps, int maxPopulation, double mu, double rho, double delta, CostMatrix costs, Rng random) {
+        this(maxSteps, maxPopulation, mu, rho, delta, costs, random, Storage.HEAP);
+    }
+
+    /**
+     * Construtor da classe Simulation com o armazenamento das listas de sistemas indicado.
+     * Com OFF_HEAP, a simulação deve ser fechada com close() quando deixar de ser usada.
+     * @param storage Onde guardar as listas de sistemas das patrulhas.
+     * @throws IllegalStateException Se OFF_HEAP não estiver disponível nesta JVM.
      */
-    public Simulation(int maxSteps, int maxPopulation, double mu, double rho, double delta, int numberOfPatrols, int numberOfSystems) {
-        this.patrols = new ArrayList<>();
+    public Simulation(int maxSteps, int maxPopulation, double mu, double rho, double delta, CostMatrix costs, Rng random,
+                      Storage storage) {
+        this(maxSteps, maxPopulation, mu, rho, delta, costs, random, storage, 0, 1);
+    }
+
+    /**
+     * Construtor de uma ilha: a população inicial (uma patrulha por linha da matriz C) é repartida pelas ilhas,
+     * e esta simulação fica apenas com as linhas island, island + islands, island + 2 * islands, ...
+     * @param island O índice desta ilha, entre 0 e islands - 1.
+     * @param islands O número de ilhas (no máximo o número de linhas da matriz C).
+     */
+    Simulation(int maxSteps, int maxPopulation, double mu, double rho, double delta, CostMatrix costs, Rng random,
+               Storage storage, int island, int islands) {
+        if (island < 0 || island >= islands || islands > costs.getRows()) {
+            throw new IllegalArgumentException("Invalid island " + island + " of " + islands
+                    + " for " + costs.getRows() + " initial patrols");
+        }
+        this.patrols = new Population(Math.max(costs.getRows(), maxPopulation + 1));
         this.isRunning = true;
         this.currentTime = 0;
-        this.random = new Random();
+        this.random = random;
+        this.context = new SimulationContext(costs, random, mu, rho, delta, SystemStorage.create(storage));
         this.MAX_STEPS = maxSteps;
         this.MAX_POPULATION = maxPopulation;
         this.mu = mu;
         this.rho = rho;
         this.delta = delta;
-        this.patrollingTimes = new double[numberOfPatrols][numberOfSystems];
-        initializePatrols(numberOfPatrols, numberOfSystems);
+        this.events = new EventQueue(Math.max(costs.getRows(), maxPopulation + 1) * EVENT_TYPES);
+        this.rates = new RateTree(Math.max(costs.getRows(), maxPopulation + 1));
+        initializePatrols(island, islands, costs.getColumns());
         updateTmin(); // Atualiza o valor mínimo de tempo (tmin) necessário para patrulhar.
+        publishSnapshot();
+    }
+
+    /**
+     * Retoma uma simulação a partir de um instantâneo, sem inicializar uma população nova.
+     */
+    private Simulation(Checkpoint checkpoint, CostMatrix costs, Storage storage) {
+        this.patrols = new Population(Math.max(checkpoint.units.length, checkpoint.maxPopulation + 1));
+        this.random = Rng.restore(checkpoint.rngSeed, checkpoint.rngGamma);
+        this.context = new SimulationContext(costs, random, checkpoint.mu, checkpoint.rho, checkpoint.delta,
+                SystemStorage.create(storage));
+        this.MAX_STEPS = checkpoint.maxSteps;
+        this.MAX_POPULATION = checkpoint.maxPopulation;
+        this.mu = checkpoint.mu;
+        this.rho = checkpoint.rho;
+        this.delta = checkpoint.delta;
+        this.events = new EventQueue(Math.max(checkpoint.nextEventId, checkpoint.maxPopulation + 1) * EVENT_TYPES);
+        this.rates = new RateTree(Math.max(checkpoint.nextEventId, checkpoint.maxPopulation + 1));
+        restore(checkpoint);
+        publishSnapshot();
     }
 
     /**
-     * Inicializa as patrulhas e os sistemas planetários que elas devem monitorizar.
-     * @param numberOfPatrols Número de patrulhas a serem criadas.
+     * Inicializa as patrulhas e os sistemas planetários que elas devem monitorizar: uma patrulha por linha
+     * da matriz C, começando em firstUnit e avançando unitStep linhas de cada vez.
+     * @param firstUnit A primeira linha da matriz C.
+     * @param unitStep O intervalo entre linhas (1 para todas as linhas).
      * @param numberOfSystems Número de sistemas planetários a serem monitorizados.
      */
-    private void initializePatrols(int numberOfPatrols, int numberOfSystems) {
-        for (int i = 0; i < numberOfPatrols; i++) {
-            Patrol newPatrol = new Patrol();
+    private void initializePatrols(int firstUnit, int unitStep, int numberOfSystems) {
+        for (int i = firstUnit; i < context.getNumberOfPatrols(); i += unitStep) {
+            Patrol newPatrol = new Patrol(context, i, numberOfSystems);
             for (int j = 0; j < numberOfSystems; j++) {
-                int pacificationTime = random.nextInt(300) + 50; // Gera um tempo de pacificação entre 50 e 350.
-                PlanetarySystem system = new PlanetarySystem(pacificationTime);
-                newPatrol.addSystem(system);
-                patrollingTimes[i][j] = pacificationTime; // Armazena o tempo na matriz.
+                newPatrol.addSystem(j); // O custo de cada sistema vem da linha i da matriz C.
             }
-            patrols.add(newPatrol); // Adiciona a nova patrulha à lista de patrulhas.
+            addPatrol(newPatrol); // Adiciona a nova patrulha à lista de patrulhas.
         }
     }
 
     /**
-     * Atualiza o valor de tmin com base nos tempos mínimos registrados para patrulhar cada sistema.
+     * Atualiza o valor de tmin (a média dos mínimos de cada coluna da matriz C).
      */
     private void updateTmin() {
-        double tminSum = 0;
-        int numberOfSystems = patrollingTimes[0].length;
-        for (int j = 0; j < numberOfSystems; j++) {
-            double minTime = Double.MAX_VALUE;
-            for (int i = 0; i < patrollingTimes.length; i++) {
-                if (patrollingTimes[i][j] < minTime) {
-                    minTime = patrollingTimes[i][j];
-                }
-            }
-            tminSum += minTime; // Soma os tempos mínimos de todos os sistemas.
+        context.setTmin(ColumnMinima.tmin(context.getCosts())); // Define o tmin desta execução.
+        for (int i = 0; i < patrols.size(); i++) {
+            patrols.get(i).updateComfortable();
         }
-        Patrol.setTmin(tminSum / numberOfSystems); // Calcula a média e define o tmin na classe Patrol.
     }
 
     /**
@@ -87,12 +280,464 @@ public class Simulation {
     public void runSimulation() {
         while (isRunning) {
             simulateStep();
-            if (checkTerminationCondition()) {
-                isRunning = false; // Para a simulação se a condição de término for atendida.
+            checkTerminationCondition(); // Para a simulação se a condição de término for atendida.
+        }
+    }
+
+    /**
+     * Escolhe o motor usado por runUntil. Só pode ser alterado antes da primeira chamada a runUntil.
+     * @param engine O motor a usar.
+     */
+    public void setEngine(Engine engine) {
+        if (eventDriven && engine != this.engine) {
+            throw new IllegalStateException("The engine cannot be changed after the simulation has started");
+        }
+        this.engine = engine;
+    }
+
+    public Engine getEngine() {
+        return engine;
+    }
+
+    public double getLeapTolerance() {
+        return leapTolerance;
+    }
+
+    public int getGuidedMutation() {
+        return mutationCandidates;
+    }
+
+    /**
+     * Indica se a deteção de convergência está ligada com a janela indicada (ver setConvergence).
+     */
+    public boolean hasConvergence(double threshold, long windowEvents, double windowTime) {
+        return convergence != null && convergence.hasWindow(threshold, windowEvents, windowTime);
+    }
+
+    /**
+     * Indica se a deteção de convergência está ligada.
+     */
+    public boolean hasConvergence() {
+        return convergence != null;
+    }
+
+    /**
+     * Define o controlo de erro do modo TAU_LEAPING: cada salto é escolhido de forma a que a variação esperada
+     * da população (e o seu desvio padrão) não exceda esta fração do tamanho da população, ou da margem até
+     * vmax se esta for menor. Valores menores dão saltos mais curtos e resultados mais próximos do modo exato.
+     * @param tolerance Um valor em (0, 1].
+     */
+    public void setLeapTolerance(double tolerance) {
+        if (!(tolerance > 0 && tolerance <= 1)) {
+            throw new IllegalArgumentException("Leap tolerance must be in (0, 1]: " + tolerance);
+        }
+        this.leapTolerance = tolerance;
+    }
+
+    /**
+     * Indica se runUntil já foi chamado (ou se a simulação foi retomada já a meio do modo de eventos).
+     */
+    public boolean isStarted() {
+        return eventDriven;
+    }
+
+    /**
+     * Executa a simulação em modo de eventos discretos até ao instante indicado.
+     * Com o motor EVENT_QUEUE, cada patrulha tem instantes de morte, reprodução e mutação com distribuição
+     * exponencial, guardados numa fila de prioridade; com DIRECT_METHOD, o próximo evento é sorteado a partir
+     * da soma de todas as taxas. Em ambos os casos, apenas as patrulhas afetadas por um evento são reagendadas.
+     * Pode ser chamado várias vezes com instantes crescentes para observar a simulação a meio.
+     * Com qualquer motor, a simulação termina (StopReason.MAX_STEPS) ao atingir o número máximo de eventos.
+     * @param tau Instante final (inclusive) até onde a simulação deve avançar.
+     */
+    public void runUntil(double tau) {
+        if (!eventDriven) {
+            eventDriven = true;
+            evaluatePopulation();
+            for (int i = 0; i < patrols.size(); i++) {
+                schedule(patrols.get(i));
+                recordCandidate(patrols.get(i));
+            }
+        }
+        if (engine == Engine.DIRECT_METHOD) {
+            runDirectUntil(tau);
+        } else if (engine == Engine.TAU_LEAPING) {
+            runLeapingUntil(tau);
+        } else {
+            while (isRunning && !events.isEmpty() && events.peekTime() <= tau) {
+                currentTime = events.peekTime();
+                int id = events.poll();
+                fire(patrolsById[id / EVENT_TYPES], id % EVENT_TYPES);
+            }
+        }
+        if (isRunning && currentTime < tau) {
+            currentTime = tau;
+        }
+        publishSnapshot();
+    }
+
+    /**
+     * Método direto de Gillespie: o tempo até ao próximo evento é exponencial com a soma de todas as taxas,
+     * a patrulha é escolhida com probabilidade proporcional à sua taxa total e o tipo de evento com
+     * probabilidade proporcional à taxa de cada tipo. É estatisticamente equivalente à fila de eventos,
+     * mas cada evento custa O(log n) sem manter três instantes por patrulha.
+     */
+    private void runDirectUntil(double tau) {
+        while (isRunning) {
+            double total = rates.total();
+            if (!(total > 0) || Double.isInfinite(total)) return;
+            double next = currentTime + random.nextExponential(total);
+            // Pela ausência de memória da exponencial, descartar um instante depois de tau não enviesa a execução.
+            if (next > tau) return;
+            currentTime = next;
+            int id = rates.select(random.nextDouble() * total);
+            if (id < 0) {
+                rates.rebuild(); // O total só era positivo por erro de arredondamento.
+                continue;
+            }
+            Patrol patrol = patrolsById[id];
+            double u = rates.remainder();
+            double death = eventRate(patrol, DEATH);
+            if (u < death) {
+                fire(patrol, DEATH);
+            } else if (u - death < eventRate(patrol, REPRODUCTION)) {
+                fire(patrol, REPRODUCTION);
+            } else {
+                fire(patrol, MUTATION);
             }
         }
     }
 
+    /**
+     * Modo TAU_LEAPING. Em cada salto, as taxas de toda a população são avaliadas em bloco e somadas por grupo
+     * de conforto. A duração do salto é a maior que mantém a variação esperada da população, R - D, abaixo de
+     * ε·g e a sua variância, R + D + M, abaixo de (ε·g)², onde g é o menor entre a população e a margem até vmax
+     * (pelo que os saltos encurtam com populações pequenas ou perto de vmax). Depois, para cada grupo, são sorteados
+     * números de Poisson de reproduções, mutações e mortes, aplicados a patrulhas escolhidas ao acaso no grupo.
+     * Quando um salto teria poucos eventos, a simulação avança um evento de cada vez, como no método direto.
+     */
+    private void runLeapingUntil(double tau) {
+        while (isRunning && currentTime < tau) {
+            int n = patrols.size();
+            evaluatePopulation();
+            double death = 0, reproduction = 0, mutation = 0;
+            for (int i = 0; i < n; i++) {
+                death += positiveRate(bulkDeath[i]);
+                reproduction += positiveRate(bulkReproduction[i]);
+                mutation += positiveRate(bulkMutation[i]);
+            }
+            double total = death + reproduction + mutation;
+            if (!(total > 0) || Double.isInfinite(total)) return;
+
+            double margin = leapTolerance * Math.max(1, Math.min(n, MAX_POPULATION - n));
+            double drift = Math.abs(reproduction - death);
+            double step = Math.min(drift > 0 ? margin / drift : Double.POSITIVE_INFINITY, margin * margin / total);
+            if (step * total < MIN_LEAP_EVENTS) {
+                exactStep(n, total, tau);
+                continue;
+            }
+            step = Math.min(step, tau - currentTime);
+            currentTime += step;
+            leap(n, step);
+        }
+    }
+
+    /**
+     * Realiza um único evento a partir das taxas já avaliadas em bloco (em O(n), só usado com populações pequenas).
+     */
+    private void exactStep(int n, double total, double tau) {
+        double next = currentTime + random.nextExponential(total);
+        if (next > tau) {
+            currentTime = tau; // Pela ausência de memória da exponencial, o sorteio pode ser descartado.
+            return;
+        }
+        currentTime = next;
+        double u = random.nextDouble() * total;
+        for (int i = 0; i < n; i++) {
+            double death = positiveRate(bulkDeath[i]);
+            double reproduction = positiveRate(bulkReproduction[i]);
+            double mutation = positiveRate(bulkMutation[i]);
+            if (u < death) {
+                fire(patrols.get(i), DEATH);
+                return;
+            }
+            u -= death;
+            if (u < reproduction) {
+                fire(patrols.get(i), REPRODUCTION);
+                return;
+            }
+            u -= reproduction;
+            if (u < mutation || i == n - 1) {
+                fire(patrols.get(i), MUTATION);
+                return;
+            }
+            u -= mutation;
+        }
+    }
+
+    /**
+     * Aplica um salto de duração step: agrupa as patrulhas por conforto (ordenação por contagem), sorteia o número
+     * de eventos de cada tipo em cada grupo e aplica-os, grupo a grupo, primeiro as reproduções e mutações
+     * e depois as mortes. Uma epidemia termina o salto, já que a população e as taxas mudaram por completo.
+     */
+    private void leap(int n, double step) {
+        if (leapMembers.length < n) {
+            leapMembers = new Patrol[Math.max(n, leapMembers.length * 2)];
+            memberBucket = new int[leapMembers.length];
+        }
+        Arrays.fill(bucketStart, 0);
+        Arrays.fill(bucketDeath, 0);
+        Arrays.fill(bucketReproduction, 0);
+        Arrays.fill(bucketMutation, 0);
+        for (int i = 0; i < n; i++) {
+            double comfort = bulkComfort[i];
+            int bucket = comfort >= 0 && comfort < 1 ? (int) (comfort * LEAP_BUCKETS) : LEAP_BUCKETS - 1;
+            memberBucket[i] = bucket;
+            bucketStart[bucket + 1]++;
+            bucketDeath[bucket] += positiveRate(bulkDeath[i]);
+            bucketReproduction[bucket] += positiveRate(bulkReproduction[i]);
+            bucketMutation[bucket] += positiveRate(bulkMutation[i]);
+        }
+        for (int b = 0; b < LEAP_BUCKETS; b++) {
+            bucketStart[b + 1] += bucketStart[b];
+        }
+        // Cada patrulha vai para a próxima posição livre do seu grupo; bucketStart[b] avança até ao início de b + 1.
+        for (int i = 0; i < n; i++) {
+            leapMembers[bucketStart[memberBucket[i]]++] = patrols.get(i);
+        }
+
+        int epidemics = context.getEpidemicCount();
+        for (int b = 0; b < LEAP_BUCKETS && isRunning; b++) {
+            int from = b == 0 ? 0 : bucketStart[b - 1];
+            int size = bucketStart[b] - from;
+            if (size == 0) continue;
+            int reproductions = random.nextPoisson(bucketReproduction[b] * step);
+            int mutations = random.nextPoisson(bucketMutation[b] * step);
+            int deaths = Math.min(size, random.nextPoisson(bucketDeath[b] * step));
+            for (int k = 0; k < reproductions + mutations && isRunning; k++) {
+                Patrol patrol = leapMembers[from + random.nextInt(size)];
+                if (patrol.isAlive()) {
+                    fire(patrol, k < reproductions ? REPRODUCTION : MUTATION);
+                }
+                if (context.getEpidemicCount() != epidemics) return;
+            }
+            // Fisher-Yates parcial: as mortes recaem sobre patrulhas distintas do grupo.
+            for (int k = 0; k < deaths && isRunning; k++) {
+                int index = from + k + random.nextInt(size - k);
+                Patrol patrol = leapMembers[index];
+                leapMembers[index] = leapMembers[from + k];
+                leapMembers[from + k] = patrol;
+                if (patrol.isAlive()) {
+                    fire(patrol, DEATH);
+                }
+            }
+        }
+        Arrays.fill(leapMembers, 0, n, null);
+    }
+
+    private static double positiveRate(double rate) {
+        return rate > 0 && !Double.isInfinite(rate) ? rate : 0;
+    }
+
+    /**
+     * Realiza um evento, registando-o nas métricas se estiverem ligadas.
+     */
+    private void fire(Patrol patrol, int type) {
+        if (metrics == null) {
+            processEvent(patrol, type);
+        } else {
+            long startNanos = System.nanoTime();
+            long startBytes = SimulationMetrics.threadAllocatedBytes();
+            processEvent(patrol, type);
+            int size = patrols.size();
+            metrics.recordEvent(type, startNanos, startBytes, size, size - reportedPopulation);
+            reportedPopulation = size;
+        }
+        context.incrementEventCount();
+        if (snapshotInterval > 0 && --eventsUntilSnapshot <= 0) {
+            publishSnapshot();
+        }
+        if (patrols.isEmpty()) {
+            stop(StopReason.EXTINCTION);
+        } else if (context.getEventCount() >= MAX_STEPS) {
+            stop(StopReason.MAX_STEPS);
+        } else if (convergence != null) {
+            Candidate best = candidates.best();
+            if (best != null && convergence.record(context.getEventCount(), currentTime, best.getComfort(),
+                    best.getPolicingTime())) {
+                stop(StopReason.CONVERGED);
+            }
+        }
+    }
+
+    /**
+     * Publica o estado atual num novo instantâneo imutável. Só aloca o instantâneo e a cópia dos K candidatos,
+     * uma vez por intervalo de publicação; os leitores nunca provocam alocações nem esperas no ciclo de eventos.
+     */
+    private void publishSnapshot() {
+        snapshot = new ObservationSnapshot(currentTime, context.getEventCount(), patrols.size(),
+                context.getEpidemicCount(), isRunning, stopReason, candidates.toArray());
+        eventsUntilSnapshot = snapshotInterval;
+    }
+
+    /**
+     * Retorna o último instantâneo publicado. Pode ser chamado a partir de qualquer thread, sem locks,
+     * enquanto a simulação corre noutra thread.
+     * @return O instantâneo mais recente.
+     */
+    public ObservationSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Define de quantos em quantos eventos é publicado um instantâneo para observadores noutras threads.
+     * Independentemente deste intervalo, é sempre publicado um instantâneo no fim de cada runUntil.
+     * @param events O intervalo em eventos, ou 0 para publicar apenas no fim de cada runUntil.
+     */
+    public void setSnapshotInterval(long events) {
+        if (events < 0) {
+            throw new IllegalArgumentException("Snapshot interval cannot be negative: " + events);
+        }
+        this.snapshotInterval = events;
+        this.eventsUntilSnapshot = events;
+    }
+
+    /**
+     * Termina a simulação, guardando o primeiro motivo de paragem.
+     */
+    private void stop(StopReason reason) {
+        isRunning = false;
+        if (stopReason == null) {
+            stopReason = reason;
+        }
+    }
+
+    /**
+     * Aplica um evento à patrulha indicada e reagenda as patrulhas que foram alteradas.
+     */
+    private void processEvent(Patrol patrol, int type) {
+        touched.clear();
+        switch (type) {
+            case DEATH:
+                removePatrol(patrol);
+                unschedule(patrol);
+                release(patrol);
+                return;
+            case REPRODUCTION:
+                reproduce(patrol);
+                break;
+            default:
+                mutate(patrol);
+                break;
+        }
+        if (patrols.size() > MAX_POPULATION) {
+            triggerEpidemic();
+        }
+        // A patrulha que disparou o evento volta a sortear o próximo evento do mesmo tipo
+        // (no método direto a sua taxa só muda se a patrulha tiver sido alterada).
+        if (patrol.eventId >= 0 && engine == Engine.EVENT_QUEUE) {
+            scheduleEvent(patrol, type);
+        }
+        for (Patrol changed : touched) {
+            // Ignora as patrulhas que morreram numa epidemia durante este evento; as recém-nascidas são agendadas aqui.
+            if (!changed.isAlive()) {
+                continue;
+            }
+            schedule(changed);
+            recordCandidate(changed);
+        }
+        if (context.getComfortablePatrols() > 0) {
+            stop(StopReason.COMFORT_REACHED);
+        }
+    }
+
+    /**
+     * Atribui um identificador à patrulha (se necessário) e sorteia os seus três próximos eventos.
+     */
+    private void schedule(Patrol patrol) {
+        if (engine == Engine.TAU_LEAPING) return; // As taxas são avaliadas em bloco no início de cada salto.
+        if (patrol.eventId < 0) {
+            int id = freeEventCount > 0 ? freeEventIds[--freeEventCount] : nextEventId++;
+            if (id >= patrolsById.length) {
+                patrolsById = Arrays.copyOf(patrolsById, Math.max(id + 1, patrolsById.length * 2));
+            }
+            patrol.eventId = id;
+            patrolsById[id] = patrol;
+        }
+        if (engine == Engine.DIRECT_METHOD) {
+            rates.set(patrol.eventId, eventRate(patrol, DEATH) + eventRate(patrol, REPRODUCTION)
+                    + eventRate(patrol, MUTATION));
+            return;
+        }
+        scheduleEvent(patrol, DEATH);
+        scheduleEvent(patrol, REPRODUCTION);
+        scheduleEvent(patrol, MUTATION);
+    }
+
+    /**
+     * Sorteia o instante do próximo evento do tipo indicado a partir da respetiva taxa.
+     * Eventos com taxa nula ou indefinida deixam de estar agendados.
+     */
+    private void scheduleEvent(Patrol patrol, int type) {
+        double rate = eventRate(patrol, type);
+        int id = patrol.eventId * EVENT_TYPES + type;
+        if (rate > 0) {
+            events.schedule(id, currentTime + random.nextExponential(rate));
+        } else {
+            events.cancel(id);
+        }
+    }
+
+    /**
+     * Taxa do evento do tipo indicado, ou 0 se a taxa for nula ou indefinida (o evento nunca ocorre).
+     */
+    private static double eventRate(Patrol patrol, int type) {
+        double rate;
+        switch (type) {
+            case DEATH:
+                rate = patrol.getDeathRate();
+                break;
+            case REPRODUCTION:
+                rate = patrol.getReproductionRate();
+                break;
+            default:
+                rate = patrol.getMutationRate();
+                break;
+        }
+        return positiveRate(rate);
+    }
+
+    /**
+     * Propõe a distribuição da patrulha ao conjunto das melhores distribuições encontradas.
+     */
+    private void recordCandidate(Patrol patrol) {
+        candidates.offer(patrol);
+        if (metrics != null) {
+            metrics.recordComfort(patrol.getComfort());
+        }
+    }
+
+    /**
+     * Cancela todos os eventos da patrulha e liberta o seu identificador.
+     */
+    private void unschedule(Patrol patrol) {
+        int id = patrol.eventId;
+        if (id < 0) return;
+        if (engine == Engine.DIRECT_METHOD) {
+            rates.set(id, 0);
+        } else {
+            for (int type = 0; type < EVENT_TYPES; type++) {
+                events.cancel(id * EVENT_TYPES + type);
+            }
+        }
+        patrolsById[id] = null;
+        patrol.eventId = -1;
+        if (freeEventCount == freeEventIds.length) {
+            freeEventIds = Arrays.copyOf(freeEventIds, freeEventCount * 2);
+        }
+        freeEventIds[freeEventCount++] = id;
+    }
+
     /**
      * Simula um único passo, incluindo reprodução, mutação e morte das patrulhas.
      */
@@ -101,105 +746,674 @@ public class Simulation {
             triggerEpidemic(); // Desencadeia uma epidemia se o número de patrulhas exceder o limite máximo.
         }
 
-        List<Patrol> patrolsCopy = new ArrayList<>(patrols);
-        for (Patrol patrol : patrolsCopy) {
-            if (random.nextDouble() < deathRate(patrol)) {
-                patrols.remove(patrol); // Remove patrulhas com base na taxa de mortalidade.
+        // Percorre do fim para o início: as remoções só trazem para a posição i patrulhas já visitadas
+        // ou nascidas neste passo, pelo que cada patrulha existente no início do passo é visitada uma vez.
+        for (int i = patrols.size() - 1; i >= 0; i--) {
+            Patrol patrol = patrols.get(i);
+            if (random.nextDouble() < patrol.getDeathRate()) {
+                removePatrol(patrol); // Remove patrulhas com base na taxa de mortalidade.
             }
-            if (random.nextDouble() < reproductionRate(patrol)) {
+            if (random.nextDouble() < patrol.getReproductionRate()) {
                 reproduce(patrol); // Reproduz patrulhas com base na taxa de reprodução.
             }
-            if (random.nextDouble() < mutationRate(patrol)) {
+            if (random.nextDouble() < patrol.getMutationRate()) {
                 mutate(patrol); // Muta patrulhas com base na taxa de mutação.
             }
+            touched.clear(); // As patrulhas alteradas só interessam ao modo de eventos discretos.
         }
         currentTime++; // Incrementa o contador de tempo.
     }
 
     /**
-     * Calcula a taxa de mortalidade de uma patrulha com base no seu conforto.
+     * Adiciona uma patrulha à população viva.
      */
-    private double deathRate(Patrol patrol) {
-        return Math.exp(-mu * (1 - Math.log(1 - patrol.getComfort())));
+    private void addPatrol(Patrol patrol) {
+        patrols.add(patrol);
+        patrol.setAlive(true);
     }
 
     /**
-     * Calcula a taxa de reprodução de uma patrulha com base no seu conforto.
+     * Retira uma patrulha da população viva.
      */
-    private double reproductionRate(Patrol patrol) {
-        return Math.exp(-rho * (1 - Math.log(patrol.getComfort())));
+    private void removePatrol(Patrol patrol) {
+        if (patrols.remove(patrol)) {
+            patrol.setAlive(false);
+        }
     }
 
     /**
-     * Calcula a taxa de mutação de uma patrulha com base no seu conforto.
+     * Realiza a mutação de uma patrulha, movendo um sistema planetário de uma patrulha para outra.
      */
-    private double mutationRate(Patrol patrol) {
-        return Math.exp(-delta * (1 - Math.log(patrol.getComfort())));
+    private void mutate(Patrol patrol) {
+        if (mutationCandidates > 0) {
+            guidedMutate(patrol);
+            return;
+        }
+        if (patrols.size() < 2 || patrol.getSystemCount() == 0) return;
+
+        int systemToMutate = patrol.removeRandomSystem();
+        Patrol targetPatrol = patrols.sampleOther(patrol, random);
+        targetPatrol.addSystem(systemToMutate);
+        touched.add(patrol);
+        touched.add(targetPatrol);
     }
 
     /**
-     * Realiza a mutação de uma patrulha, movendo um sistema planetário de uma patrulha para outra.
+     * Mutação guiada: em vez de mover um sistema ao acaso para uma patrulha ao acaso, sorteia k sistemas da patrulha
+     * e retira o que lhe custa mais, e sorteia k patrulhas de destino e escolhe a que fica com menor tempo de
+     * patrulhamento depois de o receber. Cada movimento é avaliado em O(1) a partir do total guardado em cada
+     * patrulha e da matriz C, pelo que o custo por evento é O(k).
      */
-    private void mutate(Patrol patrol) {
-        if (patrols.size() < 2 || patrol.getSystems().isEmpty()) return;
+    private void guidedMutate(Patrol patrol) {
+        int count = patrol.getSystemCount();
+        if (patrols.size() < 2 || count == 0) return;
+        CostMatrix costs = context.getCosts();
 
-        PlanetarySystem systemToMutate = patrol.removeRandomSystem();
-        Patrol targetPatrol;
-        do {
-            targetPatrol = patrols.get(random.nextInt(patrols.size()));
-        } while (targetPatrol == patrol);
-        targetPatrol.addSystem(systemToMutate);
+        int unit = patrol.getUnit();
+        int bestIndex = random.nextInt(count);
+        int bestSaving = costs.get(unit, patrol.getSystem(bestIndex));
+        for (int i = 1; i < mutationCandidates; i++) {
+            int index = random.nextInt(count);
+            int saving = costs.get(unit, patrol.getSystem(index));
+            if (saving > bestSaving) {
+                bestIndex = index;
+                bestSaving = saving;
+            }
+        }
+        int system = patrol.removeSystemAt(bestIndex);
+
+        Patrol target = patrols.sampleOther(patrol, random);
+        long bestTotal = (long) target.getTotalPatrolTime() + costs.get(target.getUnit(), system);
+        for (int i = 1; i < mutationCandidates; i++) {
+            Patrol candidate = patrols.sampleOther(patrol, random);
+            long total = (long) candidate.getTotalPatrolTime() + costs.get(candidate.getUnit(), system);
+            if (total < bestTotal) {
+                target = candidate;
+                bestTotal = total;
+            }
+        }
+        target.addSystem(system);
+        touched.add(patrol);
+        touched.add(target);
     }
 
     /**
      * Realiza a reprodução de uma patrulha, criando uma nova patrulha com sistemas semelhantes.
      */
     private void reproduce(Patrol patrol) {
-        Patrol newPatrol = new Patrol();
-        newPatrol.cloneSystemsFrom(patrol);
-
         // Limitar o número de sistemas a remover para o tamanho atual dos sistemas
-        int systemsToRemove = Math.min((int) Math.floor((1 - patrol.getComfort()) * patrol.getSystems().size()), newPatrol.getSystems().size());
+        int systemsToRemove = Math.min((int) Math.floor((1 - patrol.getComfort()) * patrol.getSystemCount()), patrol.getSystemCount());
 
+        // Sem sistemas a retirar o descendente seria igual ao progenitor e é descartado, por isso nem é criado.
         if (systemsToRemove > 0 && patrols.size() > 1) {
-            List<PlanetarySystem> removedSystems = newPatrol.removeRandomSystems(systemsToRemove);
-            for (PlanetarySystem system : removedSystems) {
-                Patrol randomPatrol;
-                do {
-                    randomPatrol = patrols.get(random.nextInt(patrols.size()));
-                } while (randomPatrol == patrol);
-
+            if (removedSystems.length < systemsToRemove) {
+                removedSystems = new int[Math.max(systemsToRemove, removedSystems.length * 2)];
+            }
+            // O descendente é construído numa só passagem (cópia e remoções), sem alterar o progenitor.
+            Patrol newPatrol = obtainPatrol(patrol.getUnit());
+            int removedCount = newPatrol.inheritFrom(patrol, systemsToRemove, removedSystems);
+            for (int i = 0; i < removedCount; i++) {
+                int system = removedSystems[i];
+                Patrol randomPatrol = patrols.sampleOther(patrol, random);
                 randomPatrol.addSystem(system);
+                touched.add(randomPatrol);
             }
-            patrols.add(newPatrol);
+            addPatrol(newPatrol);
+            touched.add(newPatrol);
         }
     }
 
+    /**
+     * Retorna uma patrulha vazia, reutilizando uma patrulha morta se houver alguma disponível.
+     */
+    private Patrol obtainPatrol(int unit) {
+        if (pooled == 0) {
+            return new Patrol(context, unit);
+        }
+        Patrol patrol = pool[--pooled];
+        pool[pooled] = null;
+        patrol.reset(unit);
+        return patrol;
+    }
+
+    /**
+     * Devolve uma patrulha morta para ser reutilizada.
+     */
+    private void release(Patrol patrol) {
+        if (pooled == pool.length) {
+            pool = Arrays.copyOf(pool, pooled * 2);
+        }
+        pool[pooled++] = patrol;
+    }
+
     /**
      * Desencadeia uma epidemia quando a população excede o limite máximo, mantendo apenas as patrulhas com maior conforto.
+     * Os sobreviventes são escolhidos por seleção (quickselect) sobre o conforto guardado de cada patrulha,
+     * em tempo linear, sem ordenar a população inteira. Se a probabilidade de sobrevivência for positiva,
+     * cada uma das restantes patrulhas sobrevive também com essa probabilidade.
      */
     private void triggerEpidemic() {
-        if (patrols.size() <= MAX_POPULATION) return;
-        patrols.sort((p1, p2) -> Double.compare(p2.getComfort(), p1.getComfort()));
-        List<Patrol> survivors = new ArrayList<>(patrols.subList(0, Math.min(5, patrols.size())));
-        patrols = survivors;
+        int n = patrols.size();
+        if (n <= MAX_POPULATION) return;
+        context.incrementEpidemicCount();
+        if (metrics != null) {
+            metrics.recordEpidemic();
+        }
+        double[] selectionComfort = evaluatePopulation();
+        if (selectionIndex.length < n) {
+            selectionIndex = new int[Math.max(n, selectionIndex.length * 2)];
+        }
+        for (int i = 0; i < n; i++) {
+            selectionIndex[i] = i;
+        }
+        int k = Math.min(epidemicSurvivors, n);
+        selectTop(selectionComfort, selectionIndex, n, k);
+
+        // Marca os k melhores com NaN, para os distinguir na passagem seguinte.
+        for (int i = 0; i < k; i++) {
+            selectionComfort[selectionIndex[i]] = Double.NaN;
+        }
+        int kept = 0;
+        for (int i = 0; i < n; i++) {
+            Patrol patrol = patrols.get(i);
+            boolean survives = Double.isNaN(selectionComfort[i])
+                    || (epidemicSurvivalProbability > 0 && random.nextDouble() < epidemicSurvivalProbability);
+            if (survives) {
+                patrols.set(kept++, patrol);
+            } else {
+                unschedule(patrol);
+                patrol.setAlive(false);
+                release(patrol);
+            }
+        }
+        patrols.truncate(kept);
     }
 
     /**
-     * Verifica se a simulação deve terminar, baseado em condições como tempo máximo ou extinção das patrulhas.
+     * Calcula o conforto e as taxas de toda a população numa só passagem (RateKernel) e guarda-os em cada patrulha.
+     * Só as patrulhas cujos valores guardados deixaram de ser válidos são avaliadas: os seus totais são copiados,
+     * compactados, para o início de um array contíguo, e os resultados do kernel são depois espalhados para trás
+     * até à posição de cada patrulha, sem arrays auxiliares. As restantes usam os valores que já têm.
+     * @return O conforto de cada patrulha, pela ordem da população (válido até à próxima chamada).
+     */
+    private double[] evaluatePopulation() {
+        int n = patrols.size();
+        if (bulkTotals.length < n) {
+            int capacity = Math.max(n, bulkTotals.length * 2);
+            bulkTotals = new double[capacity];
+            bulkComfort = new double[capacity];
+            bulkDeath = new double[capacity];
+            bulkReproduction = new double[capacity];
+            bulkMutation = new double[capacity];
+        }
+        int stale = 0;
+        for (int i = 0; i < n; i++) {
+            Patrol patrol = patrols.get(i);
+            if (!patrol.hasCachedRates()) {
+                bulkTotals[stale++] = patrol.getTotalPatrolTime();
+            }
+        }
+        if (stale > 0) {
+            rateKernel.evaluate(bulkTotals, stale, context.getTmin(), mu, rho, delta,
+                    bulkComfort, bulkDeath, bulkReproduction, bulkMutation);
+        }
+        // De trás para a frente, o resultado s da patrulha i está sempre em s <= i, ainda por ler.
+        for (int i = n - 1, s = stale - 1; i >= 0; i--) {
+            Patrol patrol = patrols.get(i);
+            if (patrol.hasCachedRates()) {
+                bulkComfort[i] = patrol.getComfort();
+                bulkDeath[i] = patrol.getDeathRate();
+                bulkReproduction[i] = patrol.getReproductionRate();
+                bulkMutation[i] = patrol.getMutationRate();
+            } else {
+                bulkComfort[i] = bulkComfort[s];
+                bulkDeath[i] = bulkDeath[s];
+                bulkReproduction[i] = bulkReproduction[s];
+                bulkMutation[i] = bulkMutation[s];
+                s--;
+                patrol.setRates(bulkComfort[i], bulkDeath[i], bulkReproduction[i], bulkMutation[i]);
+            }
+        }
+        return bulkComfort;
+    }
+
+    /**
+     * Reordena index[0..n) de forma a que as primeiras k posições sejam as de maior valor em keys.
+     * Quickselect com pivô aleatório e partição em três (maiores, iguais, menores), para que muitas
+     * patrulhas com o mesmo conforto não degradem a seleção: O(n) em média.
+     */
+    private void selectTop(double[] keys, int[] index, int n, int k) {
+        int target = k - 1;
+        int left = 0, right = n - 1;
+        while (left < right) {
+            double pivot = keys[index[left + random.nextInt(right - left + 1)]];
+            int lt = left, i = left, gt = right;
+            while (i <= gt) {
+                double key = keys[index[i]];
+                if (key > pivot) {
+                    swap(index, lt++, i++);
+                } else if (key < pivot) {
+                    swap(index, i, gt--);
+                } else {
+                    i++;
+                }
+            }
+            // Agora [left, lt) > pivô, [lt, gt] == pivô e (gt, right] < pivô.
+            if (target < lt) {
+                right = lt - 1;
+            } else if (target > gt) {
+                left = gt + 1;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private static void swap(int[] array, int i, int j) {
+        int tmp = array[i];
+        array[i] = array[j];
+        array[j] = tmp;
+    }
+
+    /**
+     * Liga a instrumentação do motor de eventos (ou desliga-a, com null).
+     * As mesmas métricas podem ser partilhadas por várias simulações.
+     * @param metrics As métricas onde registar os eventos.
+     */
+    public void setMetrics(SimulationMetrics metrics) {
+        if (this.metrics != null) {
+            this.metrics.removePopulation(reportedPopulation);
+        }
+        reportedPopulation = 0;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Liga a mutação guiada, que escolhe o melhor de k movimentos sorteados em vez de um movimento ao acaso.
+     * Chega ao mesmo conforto com muito menos eventos, à custa de O(k) por mutação.
+     * @param candidates O número k de sistemas e de patrulhas de destino avaliados, ou 0 para a mutação aleatória.
+     */
+    public void setGuidedMutation(int candidates) {
+        if (candidates < 0) {
+            throw new IllegalArgumentException("Number of mutation candidates cannot be negative: " + candidates);
+        }
+        this.mutationCandidates = candidates;
+    }
+
+    /**
+     * Liga a deteção de convergência: o modo de eventos termina quando, numa janela com pelo menos windowEvents
+     * eventos e windowTime de tempo, nem o melhor conforto nem o tempo de policiamento do império melhoraram
+     * mais do que a fração threshold. A verificação custa O(1) por evento.
+     * @param threshold Melhoria relativa mínima dentro da janela (por exemplo 0.001).
+     * @param windowEvents Número mínimo de eventos da janela.
+     * @param windowTime Duração mínima da janela, ou 0 para considerar apenas os eventos.
+     */
+    public void setConvergence(double threshold, long windowEvents, double windowTime) {
+        this.convergence = new ConvergenceMonitor(threshold, windowEvents, windowTime);
+    }
+
+    /**
+     * Define quantas patrulhas sobrevivem sempre a uma epidemia (as de maior conforto).
+     * @param survivors O número de sobreviventes garantidos.
+     */
+    public void setEpidemicSurvivors(int survivors) {
+        if (survivors < 1) {
+            throw new IllegalArgumentException("At least one patrol must survive an epidemic: " + survivors);
+        }
+        this.epidemicSurvivors = survivors;
+    }
+
+    /**
+     * Define a probabilidade de sobrevivência das patrulhas que não estão entre as melhores numa epidemia.
+     * @param probability Probabilidade entre 0 (apenas as melhores sobrevivem) e 1.
+     */
+    public void setEpidemicSurvivalProbability(double probability) {
+        if (probability < 0 || probability > 1) {
+            throw new IllegalArgumentException("Survival probability must be between 0 and 1: " + probability);
+        }
+        this.epidemicSurvivalProbability = probability;
+    }
+
+    /**
+     * Verifica se a simulação deve terminar, baseado em condições como tempo máximo ou extinção das patrulhas,
+     * e nesse caso termina-a com o respetivo motivo.
      */
     private boolean checkTerminationCondition() {
-        if (currentTime >= MAX_STEPS || patrols.isEmpty()) {
-            return true;
+        if (patrols.isEmpty()) {
+            stop(StopReason.EXTINCTION);
+        } else if (context.getComfortablePatrols() > 0) {
+            stop(StopReason.COMFORT_REACHED);
+        } else if (currentTime >= MAX_STEPS) {
+            stop(StopReason.MAX_STEPS);
+        }
+        return !isRunning;
+    }
+
+    /**
+     * Introduz na população uma patrulha vinda de outra ilha, com a distribuição do candidato indicado.
+     * A patrulha é agendada como qualquer outra e, se a população passar do limite, ocorre uma epidemia.
+     * @param migrant Distribuição recebida de outra simulação com a mesma matriz C.
+     * @return false se a simulação já terminou e o migrante foi ignorado.
+     */
+    boolean immigrate(Candidate migrant) {
+        if (!isRunning) return false;
+        Patrol patrol = obtainPatrol(migrant.getUnit());
+        int[] systems = migrant.systemsArray();
+        for (int i = 0; i < migrant.getSystemCount(); i++) {
+            patrol.addSystem(systems[i]);
         }
-        return patrols.stream().anyMatch(p -> p.getComfort() >= 1.0);
+        addPatrol(patrol);
+        if (eventDriven) {
+            schedule(patrol);
+            recordCandidate(patrol);
+        }
+        if (patrols.size() > MAX_POPULATION) {
+            triggerEpidemic();
+        }
+        if (context.getComfortablePatrols() > 0) {
+            stop(StopReason.COMFORT_REACHED);
+        }
+        return true;
+    }
+
+    /**
+     * Captura o estado completo da simulação e escreve-o em segundo plano.
+     * A captura partilha os blocos de sistemas em copy-on-write (também fora do heap), pelo que o ciclo de eventos
+     * só é interrompido durante O(população + eventos pendentes).
+     * @param path Ficheiro onde escrever o instantâneo.
+     * @return Uma tarefa que termina quando o ficheiro estiver escrito.
+     */
+    public CompletableFuture<Void> writeCheckpoint(String path) {
+        if (lastCheckpoint == null || lastCheckpoint.isDone()) {
+            // As escritas são feitas por ordem: nenhum instantâneo anterior usa ainda os blocos largados.
+            context.getStorage().releaseRetired();
+        }
+        lastCheckpoint = capture().writeAsync(Path.of(path));
+        return lastCheckpoint;
+    }
+
+    /**
+     * Retoma uma simulação a partir de um instantâneo escrito por writeCheckpoint().
+     * A execução continua de forma idêntica à original, desde que a matriz C seja a mesma.
+     * @param path Ficheiro do instantâneo.
+     * @param costs Matriz C da configuração original.
+     * @return A simulação retomada.
+     * @throws IOException Se o ficheiro não puder ser lido ou não corresponder à matriz C.
+     */
+    public static Simulation restore(String path, CostMatrix costs) throws IOException {
+        return restore(path, costs, Storage.HEAP);
+    }
+
+    /**
+     * Retoma uma simulação a partir de um instantâneo, com o armazenamento das listas de sistemas indicado
+     * (que não faz parte do instantâneo e não altera a execução).
+     */
+    public static Simulation restore(String path, CostMatrix costs, Storage storage) throws IOException {
+        Checkpoint checkpoint = Checkpoint.read(Path.of(path));
+        if (checkpoint.rows != costs.getRows() || checkpoint.columns != costs.getColumns()) {
+            throw new IOException("Checkpoint was taken with a " + checkpoint.rows + "x" + checkpoint.columns
+                    + " matrix, but the configuration has " + costs.getRows() + "x" + costs.getColumns());
+        }
+        return new Simulation(checkpoint, costs, storage);
+    }
+
+    private Checkpoint capture() {
+        Checkpoint c = new Checkpoint();
+        c.maxSteps = MAX_STEPS;
+        c.maxPopulation = MAX_POPULATION;
+        c.mu = mu;
+        c.rho = rho;
+        c.delta = delta;
+        c.rows = context.getNumberOfPatrols();
+        c.columns = context.getNumberOfSystems();
+        c.epidemicSurvivors = epidemicSurvivors;
+        c.epidemicSurvivalProbability = epidemicSurvivalProbability;
+
+        c.currentTime = currentTime;
+        c.running = isRunning;
+        c.stopReason = stopReason == null ? 0 : stopReason.ordinal() + 1;
+        c.eventDriven = eventDriven;
+        c.directMethod = engine == Engine.DIRECT_METHOD;
+        c.tauLeaping = engine == Engine.TAU_LEAPING;
+        c.eventCount = context.getEventCount();
+        c.epidemicCount = context.getEpidemicCount();
+        c.tmin = context.getTmin();
+        c.rngSeed = random.getSeed();
+        c.rngGamma = random.getGamma();
+        c.nextEventId = nextEventId;
+        c.freeEventIds = Arrays.copyOf(freeEventIds, freeEventCount);
+
+        int n = patrols.size();
+        c.units = new int[n];
+        c.eventIds = new int[n];
+        c.systemCounts = new int[n];
+        c.systems = new SystemStorage.Block[n];
+        for (int i = 0; i < n; i++) {
+            Patrol patrol = patrols.get(i);
+            c.units[i] = patrol.getUnit();
+            c.eventIds[i] = patrol.eventId;
+            c.systemCounts[i] = patrol.getSystemCount();
+            c.systems[i] = patrol.shareBlock();
+        }
+
+        if (c.directMethod) {
+            // A retoma reconstrói a árvore a partir das folhas; reconstruí-la também aqui garante somas idênticas.
+            rates.rebuild();
+        }
+        c.heapIds = events.heapOrder();
+        c.heapTimes = new double[c.heapIds.length];
+        for (int i = 0; i < c.heapIds.length; i++) {
+            c.heapTimes[i] = events.timeOf(c.heapIds[i]);
+        }
+
+        List<Candidate> list = candidates.toList();
+        int k = list.size();
+        c.candidateUnits = new int[k];
+        c.candidatePolicingTimes = new int[k];
+        c.candidateComforts = new double[k];
+        c.candidateHashes = new long[k];
+        c.candidateCounts = new int[k];
+        c.candidateSystems = new int[k][];
+        for (int i = 0; i < k; i++) {
+            Candidate candidate = list.get(i);
+            c.candidateUnits[i] = candidate.getUnit();
+            c.candidatePolicingTimes[i] = candidate.getPolicingTime();
+            c.candidateComforts[i] = candidate.getComfort();
+            c.candidateHashes[i] = candidate.getHash();
+            c.candidateCounts[i] = candidate.getSystemCount();
+            c.candidateSystems[i] = candidate.systemsArray();
+        }
+
+        c.mutationCandidates = mutationCandidates;
+        c.leapTolerance = leapTolerance;
+        if (convergence != null) {
+            convergence.capture(c);
+        }
+        return c;
+    }
+
+    private void restore(Checkpoint c) {
+        context.setTmin(c.tmin);
+        context.restoreCounters(c.eventCount, c.epidemicCount);
+        currentTime = c.currentTime;
+        isRunning = c.running;
+        StopReason[] reasons = StopReason.values();
+        stopReason = c.stopReason > 0 && c.stopReason <= reasons.length ? reasons[c.stopReason - 1] : null;
+        eventDriven = c.eventDriven;
+        engine = c.directMethod ? Engine.DIRECT_METHOD : c.tauLeaping ? Engine.TAU_LEAPING : Engine.EVENT_QUEUE;
+        epidemicSurvivors = c.epidemicSurvivors;
+        epidemicSurvivalProbability = c.epidemicSurvivalProbability;
+        mutationCandidates = c.mutationCandidates;
+        leapTolerance = c.leapTolerance;
+        convergence = c.converging ? new ConvergenceMonitor(c) : null;
+
+        for (int i = 0; i < c.units.length; i++) {
+            Patrol patrol = new Patrol(context, c.units[i], c.systemCounts[i]);
+            for (int j = 0; j < c.systemCounts[i]; j++) {
+                patrol.addSystem(c.systems[i].get(j));
+            }
+            addPatrol(patrol);
+            int id = c.eventIds[i];
+            if (id >= 0) {
+                if (id >= patrolsById.length) {
+                    patrolsById = Arrays.copyOf(patrolsById, Math.max(id + 1, patrolsById.length * 2));
+                }
+                patrol.eventId = id;
+                patrolsById[id] = patrol;
+            }
+        }
+
+        nextEventId = c.nextEventId;
+        freeEventCount = c.freeEventIds.length;
+        freeEventIds = Arrays.copyOf(c.freeEventIds, Math.max(16, freeEventCount));
+        events.restore(c.heapIds, c.heapTimes);
+        if (engine == Engine.DIRECT_METHOD) {
+            for (int i = 0; i < patrols.size(); i++) {
+                Patrol patrol = patrols.get(i);
+                if (patrol.eventId >= 0) {
+                    schedule(patrol);
+                }
+            }
+            rates.rebuild();
+        }
+
+        // A assinatura é recalculada, para que instantâneos escritos com outra função de mistura continuem válidos.
+        for (int i = 0; i < c.candidateUnits.length; i++) {
+            long hash = Patrol.distributionHash(c.candidateSystems[i], c.candidateCounts[i], c.candidateUnits[i]);
+            candidates.append(new Candidate(c.candidateSystems[i], c.candidateCounts[i], c.candidateUnits[i],
+                    c.candidatePolicingTimes[i], c.candidateComforts[i], hash));
+        }
+    }
+
+    /**
+     * Retorna o instante atual da simulação.
+     * @return O instante atual.
+     */
+    public double getCurrentTime() {
+        return currentTime;
+    }
+
+    /**
+     * Retorna o número de eventos realizados no modo de eventos discretos.
+     * @return O número de eventos realizados.
+     */
+    public long getEventCount() {
+        return context.getEventCount();
+    }
+
+    /**
+     * Retorna o número de epidemias ocorridas.
+     * @return O número de epidemias.
+     */
+    public int getEpidemicCount() {
+        return context.getEpidemicCount();
+    }
+
+    /**
+     * Retorna o número de patrulhas vivas, sem copiar a população.
+     * @return O tamanho da população.
+     */
+    public int getPopulationSize() {
+        return patrols.size();
+    }
+
+    /**
+     * Retorna o conforto da melhor distribuição encontrada.
+     * @return O melhor conforto, ou -1 se ainda nenhuma distribuição foi avaliada.
+     */
+    public double getBestComfort() {
+        Candidate best = candidates.best();
+        return best == null ? -1 : best.getComfort();
+    }
+
+    /**
+     * Retorna o tempo de policiamento do império na melhor distribuição encontrada.
+     * @return O tempo de policiamento.
+     */
+    public int getBestPolicingTime() {
+        Candidate best = candidates.best();
+        return best == null ? 0 : best.getPolicingTime();
+    }
+
+    /**
+     * Retorna os sistemas da melhor distribuição encontrada.
+     * @return Uma cópia dos identificadores dos sistemas.
+     */
+    public int[] getBestSystems() {
+        Candidate best = candidates.best();
+        return best == null ? new int[0] : best.getSystems();
+    }
+
+    /**
+     * Retorna as melhores distribuições encontradas, da melhor para a pior.
+     * @return Os candidatos guardados.
+     */
+    public List<Candidate> getCandidates() {
+        return candidates.toList();
+    }
+
+    /**
+     * Retorna a melhor distribuição encontrada, ou null se ainda não houver nenhuma.
+     */
+    Candidate getBestCandidate() {
+        return candidates.best();
+    }
+
+    int getMaxSteps() {
+        return MAX_STEPS;
+    }
+
+    int getMaxPopulation() {
+        return MAX_POPULATION;
+    }
+
+    public Storage getStorage() {
+        return context.getStorage().getType();
+    }
+
+    /**
+     * Liberta a memória fora do heap usada pelas listas de sistemas (sem efeito com HEAP).
+     * Depois disto a simulação não pode continuar a ser usada.
+     */
+    public void close() {
+        setMetrics(null); // A população desta simulação deixa de contar nas métricas partilhadas.
+        if (lastCheckpoint != null) {
+            // O instantâneo em escrita pode estar ainda a ler os blocos fora do heap.
+            lastCheckpoint.exceptionally(e -> null).join();
+        }
+        context.getStorage().close();
+    }
+
+    /**
+     * Retorna o contexto próprio desta execução.
+     * @return O contexto da simulação.
+     */
+    public SimulationContext getContext() {
+        return context;
+    }
+
+    /**
+     * Retorna o motivo pelo qual a simulação terminou.
+     * @return O motivo, ou null se a simulação ainda estiver ativa (ou tiver simplesmente chegado ao instante final).
+     */
+    public StopReason getStopReason() {
+        return stopReason;
+    }
+
+    /**
+     * Indica se a simulação ainda está ativa.
+     * @return true enquanto nenhuma condição de término tiver sido atingida.
+     */
+    public boolean isRunning() {
+        return isRunning;
     }
 
     /**
      * Retorna a lista de patrulhas na simulação.
+     * Não deve ser chamado enquanto a simulação corre noutra thread; para isso existe getSnapshot().
      * @return A lista de patrulhas.
      */
     public List<Patrol> getPatrols() {
-        return new ArrayList<>(patrols);
+        return patrols.toList();
     }
 }
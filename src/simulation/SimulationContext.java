@@ -0,0 +1,145 @@
+package simulation;
+
+import config.CostMatrix;
+import random.Rng;
+
+/**
+ * Estado partilhado por todas as patrulhas de uma única execução da simulação.
+ * Cada Simulation tem o seu próprio contexto, o que permite correr várias simulações
+ * em paralelo na mesma JVM sem que interfiram umas com as outras.
+ */
+public class SimulationContext {
+    // Matriz C: tempo que cada patrulha leva a pacificar cada sistema planetário.
+    private final CostMatrix costs;
+
+    // Gerador de números aleatórios desta execução.
+    private final Rng random;
+
+    // Armazenamento das listas de sistemas das patrulhas desta execução.
+    private final SystemStorage storage;
+
+    // Coeficientes das taxas de mortalidade, reprodução e mutação.
+    private final double mu;
+    private final double rho;
+    private final double delta;
+
+    // Tempo mínimo médio para pacificar um sistema, usado para calcular o conforto.
+    private double tmin = 100;
+
+    // Versão de tmin: muda sempre que tmin muda, invalidando o conforto guardado pelas patrulhas.
+    private int tminVersion;
+
+    // Número de patrulhas vivas com conforto máximo (>= 1), usado para terminar a simulação em O(1).
+    private int comfortablePatrols;
+
+    // Número de eventos realizados até ao momento.
+    private long eventCount;
+
+    // Número de epidemias ocorridas até ao momento.
+    private int epidemicCount;
+
+    /**
+     * Cria o contexto de uma execução.
+     * @param costs Matriz C com o tempo de cada patrulha para cada sistema.
+     * @param random Gerador de números aleatórios a usar nesta execução.
+     * @param mu Coeficiente da taxa de mortalidade.
+     * @param rho Coeficiente da taxa de reprodução.
+     * @param delta Coeficiente da taxa de mutação.
+     */
+    public SimulationContext(CostMatrix costs, Rng random, double mu, double rho, double delta) {
+        this(costs, random, mu, rho, delta, SystemStorage.create(Simulation.Storage.HEAP));
+    }
+
+    SimulationContext(CostMatrix costs, Rng random, double mu, double rho, double delta, SystemStorage storage) {
+        this.costs = costs;
+        this.random = random;
+        this.storage = storage;
+        this.mu = mu;
+        this.rho = rho;
+        this.delta = delta;
+    }
+
+    public CostMatrix getCosts() {
+        return costs;
+    }
+
+    public int getNumberOfSystems() {
+        return costs.getColumns();
+    }
+
+    public int getNumberOfPatrols() {
+        return costs.getRows();
+    }
+
+    public Rng getRandom() {
+        return random;
+    }
+
+    SystemStorage getStorage() {
+        return storage;
+    }
+
+    public double getTmin() {
+        return tmin;
+    }
+
+    /**
+     * Define o tempo mínimo usado no cálculo do conforto das patrulhas desta execução.
+     * @param tmin O novo valor de tempo mínimo.
+     */
+    public void setTmin(double tmin) {
+        this.tmin = tmin;
+        tminVersion++;
+    }
+
+    int getTminVersion() {
+        return tminVersion;
+    }
+
+    public double getMu() {
+        return mu;
+    }
+
+    public double getRho() {
+        return rho;
+    }
+
+    public double getDelta() {
+        return delta;
+    }
+
+    /**
+     * Retorna o número de patrulhas vivas cujo conforto é máximo.
+     */
+    public int getComfortablePatrols() {
+        return comfortablePatrols;
+    }
+
+    void adjustComfortablePatrols(int delta) {
+        comfortablePatrols += delta;
+    }
+
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * Repõe os contadores ao retomar uma simulação a partir de um instantâneo.
+     */
+    void restoreCounters(long eventCount, int epidemicCount) {
+        this.eventCount = eventCount;
+        this.epidemicCount = epidemicCount;
+    }
+
+    void incrementEventCount() {
+        eventCount++;
+    }
+
+    public int getEpidemicCount() {
+        return epidemicCount;
+    }
+
+    void incrementEpidemicCount() {
+        epidemicCount++;
+    }
+}
@@ -1,52 +1,616 @@
 package simulation;
 
+import config.CostMatrix;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.Phaser;
+import random.Rng;
 
 /**
  * Classe SimulationManager é responsável por gerir e iniciar a simulação.
  * Esta classe configura a simulação com parâmetros específicos e inicia a execução.
  */
 public class SimulationManager {
-    private final Simulation simulation;  // Referência para a simulação que será gerida.
+    private static final int OBSERVATIONS = 20; // Número de observações impressas ao longo da simulação.
+    private static final int MIGRANTS = 2; // Número de melhores distribuições que cada ilha envia em cada migração.
+
+    // Simulação principal, criada só quando start() a usa (as réplicas e ilhas criam as suas), ou a simulação retomada.
+    private volatile Simulation simulation;
+    private final Rng simulationRandom; // Gerador reservado para a simulação principal.
+    private final int maxSteps;
+    private final int maxPopulation;
+    private final double mu;
+    private final double rho;
+    private final double delta;
+    private final CostMatrix costs;
+    private final Rng random; // Gerador de onde são derivados os geradores de cada simulação ou réplica.
+    private String checkpointPath; // Ficheiro onde é guardado o estado a cada observação, ou null.
+    private SimulationMetrics metrics; // Métricas partilhadas por todas as simulações deste gestor, ou null.
+    private Simulation.Engine engine; // Motor das réplicas e ilhas (o da simulação principal, por omissão).
+    private double leapTolerance; // Controlo de erro do modo TAU_LEAPING, ou 0 para o valor por omissão.
+    private int mutationCandidates; // Candidatos da mutação guiada, ou 0 para a mutação aleatória.
+    private long snapshotInterval; // Eventos entre instantâneos da simulação principal (0 = só no fim de cada runUntil).
+    private final Simulation.Storage storage; // Armazenamento das listas de sistemas de todas as simulações.
+    private final boolean resumed; // Se a simulação principal foi retomada de um instantâneo.
+
+    // Deteção de convergência aplicada às réplicas e ilhas (threshold < 0 se estiver desligada).
+    private double convergenceThreshold = -1;
+    private long convergenceEvents;
+    private double convergenceTime;
 
     /**
      * Construtor do SimulationManager que configura a simulação com os parâmetros necessários.
      *
-     * @param maxSteps        Número máximo de passos da simulação.
+     * @param maxSteps        Número máximo de eventos de cada simulação.
      * @param maxPopulation   População máxima antes de uma epidemia ocorrer.
      * @param mu              Taxa de mortalidade para usar na simulação.
      * @param rho             Taxa de reprodução para usar na simulação.
      * @param delta           Taxa de mutação para usar na simulação.
-     * @param numberOfPatrols Número de patrulhas na simulação.
-     * @param numberOfSystems Número de sistemas planetários na simulação.
+     * @param costs           Matriz C com o tempo de cada patrulha para cada sistema planetário.
+     * @param random          Gerador de onde são derivados os geradores de cada simulação (por exemplo, a partir da semente -s).
+     */
+    public SimulationManager(int maxSteps, int maxPopulation, double mu, double rho, double delta, CostMatrix costs, Rng random) {
+        this(maxSteps, maxPopulation, mu, rho, delta, costs, random, Simulation.Storage.HEAP);
+    }
+
+    /**
+     * Construtor do SimulationManager com o armazenamento indicado para as listas de sistemas de todas as simulações
+     * (a principal, as réplicas e as ilhas). Com OFF_HEAP, o gestor deve ser fechado com close() no fim.
+     *
+     * @param storage         Onde guardar as listas de sistemas das patrulhas.
+     * @throws IllegalStateException Se OFF_HEAP não estiver disponível nesta JVM.
      */
-    public SimulationManager(int maxSteps, int maxPopulation, double mu, double rho, double delta, int numberOfPatrols, int numberOfSystems) {
+    public SimulationManager(int maxSteps, int maxPopulation, double mu, double rho, double delta, CostMatrix costs, Rng random,
+                             Simulation.Storage storage) {
+        this.maxSteps = maxSteps;
+        this.maxPopulation = maxPopulation;
+        this.mu = mu;
+        this.rho = rho;
+        this.delta = delta;
+        this.costs = costs;
+        this.random = random;
+        this.storage = storage;
         // Passa todos os parâmetros necessários para o construtor de Simulation.
-        this.simulation = new Simulation(maxSteps, maxPopulation, mu, rho, delta, numberOfPatrols, numberOfSystems);
+        if (!SystemStorage.isAvailable(storage)) {
+            throw new IllegalStateException("Off-heap storage requires the classes in incubator/ and java --add-modules jdk.incubator.foreign");
+        }
+        // O gerador da simulação principal é derivado já, para que as réplicas recebam sempre as mesmas sequências.
+        this.simulationRandom = random.split();
+        this.engine = Simulation.Engine.EVENT_QUEUE;
+        this.resumed = false;
+    }
+
+    private SimulationManager(Simulation simulation, CostMatrix costs, Rng random) {
+        SimulationContext context = simulation.getContext();
+        this.maxSteps = simulation.getMaxSteps();
+        this.maxPopulation = simulation.getMaxPopulation();
+        this.mu = context.getMu();
+        this.rho = context.getRho();
+        this.delta = context.getDelta();
+        this.costs = costs;
+        this.random = random;
+        this.simulation = simulation;
+        this.simulationRandom = null;
+        this.engine = simulation.getEngine();
+        this.storage = simulation.getStorage();
+        this.resumed = true;
+    }
+
+    /**
+     * Cria um gestor que continua uma simulação guardada com setCheckpointPath().
+     *
+     * @param checkpointPath Ficheiro do instantâneo.
+     * @param costs          Matriz C da configuração com que a simulação foi iniciada.
+     * @param random         Gerador usado apenas para eventuais réplicas.
+     * @throws IOException   Se o instantâneo não puder ser lido.
+     */
+    public static SimulationManager resume(String checkpointPath, CostMatrix costs, Rng random) throws IOException {
+        return resume(checkpointPath, costs, random, Simulation.Storage.HEAP);
+    }
+
+    /**
+     * Cria um gestor que continua uma simulação guardada, com o armazenamento indicado para as listas de sistemas.
+     */
+    public static SimulationManager resume(String checkpointPath, CostMatrix costs, Rng random,
+                                           Simulation.Storage storage) throws IOException {
+        return new SimulationManager(Simulation.restore(checkpointPath, costs, storage), costs, random);
+    }
+
+    /**
+     * Guarda o estado completo da simulação neste ficheiro a cada observação, para que possa ser retomada.
+     * A escrita é feita em segundo plano; só a captura do estado ocorre no ciclo de eventos.
+     */
+    public void setCheckpointPath(String checkpointPath) {
+        this.checkpointPath = checkpointPath;
+    }
+
+    /**
+     * Escolhe o motor de eventos de todas as simulações deste gestor.
+     * Não tem efeito numa simulação retomada, que continua com o motor com que foi guardada.
+     */
+    public void setEngine(Simulation.Engine engine) {
+        this.engine = engine;
+        if (simulation != null && !simulation.isStarted()) {
+            simulation.setEngine(engine);
+        }
+    }
+
+    /**
+     * Retorna o motor de eventos das simulações deste gestor (numa simulação retomada, o motor guardado).
+     */
+    public Simulation.Engine getEngine() {
+        return simulation != null ? simulation.getEngine() : engine;
+    }
+
+    /**
+     * Define o controlo de erro do modo TAU_LEAPING em todas as simulações deste gestor.
+     * Uma simulação retomada continua com o valor guardado, que não pode ser alterado.
+     * @throws IllegalStateException Se a simulação foi retomada com outro valor.
+     */
+    public void setLeapTolerance(double tolerance) {
+        if (resumed && tolerance != simulation.getLeapTolerance()) {
+            throw new IllegalStateException("The checkpoint was taken with leap tolerance "
+                    + simulation.getLeapTolerance() + ", which cannot be changed on resume");
+        }
+        if (simulation != null) {
+            simulation.setLeapTolerance(tolerance);
+        }
+        this.leapTolerance = tolerance;
+    }
+
+    /**
+     * Liga a mutação guiada em todas as simulações deste gestor (ver Simulation.setGuidedMutation).
+     * Uma simulação retomada continua com o valor guardado, que não pode ser alterado.
+     * @throws IllegalStateException Se a simulação foi retomada com outro valor.
+     */
+    public void setGuidedMutation(int candidates) {
+        if (resumed && candidates != simulation.getGuidedMutation()) {
+            throw new IllegalStateException("The checkpoint was taken with " + simulation.getGuidedMutation()
+                    + " guided mutation candidates, which cannot be changed on resume");
+        }
+        if (simulation != null) {
+            simulation.setGuidedMutation(candidates);
+        }
+        this.mutationCandidates = candidates;
+    }
+
+    /**
+     * Liga a deteção de convergência em todas as simulações deste gestor (ver Simulation.setConvergence).
+     * Uma réplica que converge liberta a sua thread, que passa a executar as réplicas ainda em espera.
+     * Uma simulação retomada continua com a janela guardada (e as suas amostras), que não pode ser alterada.
+     * @throws IllegalStateException Se a simulação foi retomada com outra janela ou sem deteção de convergência.
+     */
+    public void setConvergence(double threshold, long windowEvents, double windowTime) {
+        if (resumed && !simulation.hasConvergence(threshold, windowEvents, windowTime)) {
+            throw new IllegalStateException("The checkpoint was taken "
+                    + (simulation.hasConvergence() ? "with a different convergence window" : "without convergence detection")
+                    + ", which cannot be changed on resume");
+        }
+        if (simulation != null && !resumed) {
+            // Uma simulação retomada já tem a mesma janela, e o monitor guardado mantém as suas amostras.
+            simulation.setConvergence(threshold, windowEvents, windowTime);
+        }
+        this.convergenceThreshold = threshold;
+        this.convergenceEvents = windowEvents;
+        this.convergenceTime = windowTime;
+    }
+
+    /**
+     * Retorna a simulação principal, criando-a na primeira utilização com as opções definidas neste gestor.
+     */
+    private Simulation mainSimulation() {
+        if (simulation == null) {
+            Simulation created = new Simulation(maxSteps, maxPopulation, mu, rho, delta, costs, simulationRandom, storage);
+            configure(created);
+            created.setSnapshotInterval(snapshotInterval);
+            simulation = created;
+        }
+        return simulation;
+    }
+
+    /**
+     * Aplica à simulação principal, às réplicas e às ilhas as opções definidas neste gestor.
+     */
+    private void configure(Simulation other) {
+        other.setMetrics(metrics);
+        other.setEngine(engine);
+        if (leapTolerance > 0) {
+            other.setLeapTolerance(leapTolerance);
+        }
+        other.setGuidedMutation(mutationCandidates);
+        if (convergenceThreshold >= 0) {
+            other.setConvergence(convergenceThreshold, convergenceEvents, convergenceTime);
+        }
+    }
+
+    /**
+     * Retorna o último instantâneo publicado pela simulação principal, para monitorização a partir de outra thread
+     * enquanto start() corre, sem locks nem pausas no ciclo de eventos.
+     * @return O instantâneo, ou null se a simulação principal ainda não foi criada.
+     */
+    public ObservationSnapshot getSnapshot() {
+        Simulation current = simulation;
+        return current == null ? null : current.getSnapshot();
+    }
+
+    /**
+     * Define de quantos em quantos eventos a simulação principal publica um instantâneo (ver getSnapshot()).
+     */
+    public void setSnapshotInterval(long events) {
+        if (events < 0) {
+            throw new IllegalArgumentException("Snapshot interval cannot be negative: " + events);
+        }
+        this.snapshotInterval = events;
+        if (simulation != null) {
+            simulation.setSnapshotInterval(events);
+        }
+    }
+
+    /**
+     * Liberta a memória fora do heap da simulação principal (as réplicas e ilhas libertam a sua ao terminar).
+     */
+    public void close() {
+        if (simulation != null) {
+            simulation.close();
+        }
+    }
+
+    /**
+     * Liga a instrumentação em todas as simulações deste gestor (a principal, as réplicas e as ilhas).
+     */
+    public void setMetrics(SimulationMetrics metrics) {
+        this.metrics = metrics;
+        if (simulation != null) {
+            simulation.setMetrics(metrics);
+        }
     }
 
     /**
-     * Inicia a execução da simulação.
+     * Inicia a execução da simulação em modo de eventos discretos e imprime uma observação
+     * a cada vigésima parte de tau. Os valores observados são mantidos pela própria simulação,
+     * e a escrita é feita numa thread à parte para não atrasar o ciclo de eventos.
+     * Numa simulação retomada, só são impressas as observações posteriores ao instante guardado.
      */
     public void start(double tau) {
+        Simulation simulation = mainSimulation();
+        CompletableFuture<Void> checkpoint = CompletableFuture.completedFuture(null);
+        try (ObservationWriter writer = new ObservationWriter(System.out)) {
+            for (int k = 1; k <= OBSERVATIONS; k++) {
+                double instant = tau * k / OBSERVATIONS;
+                if (instant <= simulation.getCurrentTime()) continue;
+                simulation.runUntil(instant);
+                writer.submit(formatObservation(k, simulation.getSnapshot()));
+                if (checkpointPath != null) {
+                    // Cada instantâneo substitui o anterior, por isso espera-se que o anterior termine.
+                    checkpoint.join();
+                    checkpoint = simulation.writeCheckpoint(checkpointPath);
+                }
+            }
+        }
+        checkpoint.join();
+    }
+
+    /**
+     * Constrói o texto de uma observação a partir de um instantâneo publicado pela simulação.
+     */
+    private static String formatObservation(int number, ObservationSnapshot snapshot) {
+        StringBuilder text = new StringBuilder(256);
+        Candidate best = snapshot.getBest();
+        text.append("Observation ").append(number).append(":\n");
+        text.append("\t\tPresent instant:                   ").append(snapshot.getTime()).append('\n');
+        text.append("\t\tNumber of realized events:         ").append(snapshot.getEventCount()).append('\n');
+        text.append("\t\tPopulation size:                   ").append(snapshot.getPopulationSize()).append('\n');
+        text.append("\t\tNumber of epidemics:               ").append(snapshot.getEpidemicCount()).append('\n');
+        text.append("\t\tBest distribution of the patrols:  ");
+        appendDistribution(text, best == null ? new int[0] : best.getSystems());
+        text.append('\n');
+        text.append("\t\tEmpire policing time:              ").append(snapshot.getBestPolicingTime()).append('\n');
+        text.append("\t\tComfort:                           ").append(snapshot.getBestComfort()).append('\n');
+        text.append("\t\tOther candidate distributions:     ");
+        List<Candidate> candidates = snapshot.getCandidates();
+        for (int i = 1; i < candidates.size(); i++) {
+            Candidate candidate = candidates.get(i);
+            if (i > 1) text.append("\t\t                                   ");
+            appendDistribution(text, candidate.getSystems());
+            text.append(" : ").append(candidate.getPolicingTime()).append(" : ").append(candidate.getComfort()).append('\n');
+        }
+        if (candidates.size() <= 1) text.append('\n');
+        if (number == OBSERVATIONS) {
+            text.append("\t\tStop reason:                       ").append(describe(snapshot.getStopReason())).append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Descreve o motivo de paragem de uma simulação que pode ter chegado simplesmente ao instante final.
+     */
+    private static String describe(Simulation.StopReason reason) {
+        return reason == null ? "final instant reached" : reason.getDescription();
+    }
+
+    /**
+     * Escreve quantas simulações terminaram por cada motivo.
+     */
+    private static String countStopReasons(List<Simulation.StopReason> reasons) {
+        StringBuilder text = new StringBuilder();
+        List<Simulation.StopReason> all = new ArrayList<>(List.of(Simulation.StopReason.values()));
+        all.add(null);
+        for (Simulation.StopReason reason : all) {
+            long count = reasons.stream().filter(r -> r == reason).count();
+            if (count > 0) {
+                if (text.length() > 0) text.append("; ");
+                text.append(describe(reason)).append(": ").append(count);
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Escreve uma distribuição como a lista dos sistemas (numerados a partir de 1) entre chavetas.
+     */
+    private static void appendDistribution(StringBuilder text, int[] systems) {
+        text.append('{');
+        for (int i = 0; i < systems.length; i++) {
+            if (i > 0) text.append(',');
+            text.append(systems[i] + 1);
+        }
+        text.append('}');
+    }
+
+    /**
+     * Executa várias réplicas independentes da simulação em paralelo e imprime as observações agregadas.
+     * Cada réplica tem o seu próprio contexto, pelo que não partilham estado entre si.
+     *
+     * @param tau      Instante final da simulação.
+     * @param replicas Número de réplicas independentes a executar.
+     */
+    public void startReplicas(double tau, int replicas) {
+        List<Callable<ReplicaObservations>> tasks = new ArrayList<>();
+        for (int r = 0; r < replicas; r++) {
+            Rng replicaRandom = random.split(); // Cada réplica recebe a sua própria sequência, derivada da semente.
+            tasks.add(() -> runReplica(tau, replicaRandom));
+        }
+
+        List<ReplicaObservations> results = new ArrayList<>();
+        ForkJoinPool pool = new ForkJoinPool(Math.min(replicas, Runtime.getRuntime().availableProcessors()));
+        try {
+            for (Future<ReplicaObservations> future : pool.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Replica failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
 
-        for (double i = (tau/20); i <= tau; i += tau/20 ) {
-            System.out.println("Observation " + i + ':');
-            System.out.println("\t\tPresent instant:                   " + "instant");
-            System.out.println("\t\tNumber of realized events:         " + "Number");
-            System.out.println("\t\tPopulation size:                   " + "Population size");
-            System.out.println("\t\tNumber of epidemics:               " + "Number of epidemics");
-            System.out.println("\t\tBest distribution of the patrols:  " + "Best");
-            System.out.println("\t\tEmpire policing time:              " + "Empire policing time");
-            System.out.println("\t\tComfort:                           " + "Comfort");
-            System.out.println("\t\tOther candidate distributions:     " + "Other candidate distributions");
+        for (int k = 0; k < OBSERVATIONS; k++) {
+            double events = 0, population = 0, epidemics = 0, comfort = 0, bestComfort = 0;
+            for (ReplicaObservations result : results) {
+                events += result.events[k];
+                population += result.population[k];
+                epidemics += result.epidemics[k];
+                comfort += result.bestComfort[k];
+                bestComfort = Math.max(bestComfort, result.bestComfort[k]);
+            }
+            System.out.println("Observation " + (k + 1) + " (" + replicas + " replicas):");
+            System.out.println("\t\tPresent instant:                   " + tau * (k + 1) / OBSERVATIONS);
+            System.out.println("\t\tMean number of realized events:    " + events / replicas);
+            System.out.println("\t\tMean population size:              " + population / replicas);
+            System.out.println("\t\tMean number of epidemics:          " + epidemics / replicas);
+            System.out.println("\t\tMean best comfort:                 " + comfort / replicas);
+            System.out.println("\t\tBest comfort over replicas:        " + bestComfort);
         }
-//        System.out.println("Observation number:");
-//        System.out.println("Número inicial de patrulhas: " + simulation.getPatrols().size());
-//        System.out.println("Conforto médio inicial das patrulhas: " + calculateAverageComfort(simulation.getPatrols()));
-//        simulation.runSimulation();
-//        System.out.println("Simulação concluída.");
-//        displaySimulationResults();
+        List<Simulation.StopReason> reasons = new ArrayList<>();
+        for (ReplicaObservations result : results) {
+            reasons.add(result.stopReason);
+        }
+        System.out.println("\t\tStop reasons:                      " + countStopReasons(reasons));
+    }
+
+    /**
+     * Executa uma réplica em modo de eventos discretos e regista as observações em cada instante de observação.
+     */
+    private ReplicaObservations runReplica(double tau, Rng replicaRandom) {
+        Simulation replica = new Simulation(maxSteps, maxPopulation, mu, rho, delta, costs, replicaRandom, storage);
+        try {
+            configure(replica);
+            ReplicaObservations observations = new ReplicaObservations();
+            for (int k = 0; k < OBSERVATIONS; k++) {
+                replica.runUntil(tau * (k + 1) / OBSERVATIONS);
+                observations.events[k] = replica.getEventCount();
+                observations.population[k] = replica.getPopulationSize();
+                observations.epidemics[k] = replica.getEpidemicCount();
+                observations.bestComfort[k] = replica.getBestComfort();
+            }
+            observations.stopReason = replica.getStopReason();
+            return observations;
+        } finally {
+            replica.close();
+        }
+    }
+
+    /**
+     * Observações de uma réplica, uma posição por instante de observação.
+     */
+    private static final class ReplicaObservations {
+        final long[] events = new long[OBSERVATIONS];
+        final int[] population = new int[OBSERVATIONS];
+        final int[] epidemics = new int[OBSERVATIONS];
+        final double[] bestComfort = new double[OBSERVATIONS];
+        Simulation.StopReason stopReason;
+    }
+
+    /**
+     * Executa uma única instância dividida em ilhas, cada uma com o seu próprio ciclo de eventos numa thread.
+     * A população inicial (uma patrulha por linha da matriz C) e a população máxima são repartidas pelas ilhas.
+     * A cada intervalo de migração todas as ilhas param no mesmo instante, enviam as suas melhores distribuições
+     * à ilha seguinte (num anel) através de filas sem locks, e recebem as da ilha anterior antes de continuar.
+     * Como as ilhas sincronizam nesses instantes, a execução continua reproduzível com uma semente.
+     * No fim são impressas as observações agregadas de todas as ilhas.
+     *
+     * @param tau               Instante final da simulação.
+     * @param islands           Número de ilhas.
+     * @param migrationInterval Intervalo de tempo entre migrações.
+     */
+    public void startIslands(double tau, int islands, double migrationInterval) {
+        if (islands < 1) {
+            throw new IllegalArgumentException("At least one island is required: " + islands);
+        }
+        if (!(migrationInterval > 0)) {
+            throw new IllegalArgumentException("Migration interval must be positive: " + migrationInterval);
+        }
+        if (islands > costs.getRows()) {
+            throw new IllegalArgumentException("Cannot split " + costs.getRows() + " initial patrols into " + islands + " islands");
+        }
+        List<ConcurrentLinkedQueue<Candidate>> inboxes = new ArrayList<>();
+        List<Simulation> simulations = new ArrayList<>();
+        for (int i = 0; i < islands; i++) {
+            inboxes.add(new ConcurrentLinkedQueue<>());
+            // Cada ilha começa com a sua parte das patrulhas iniciais e fica com a sua parte de νmax,
+            // mas nunca abaixo da população inicial, para que não haja uma epidemia logo no instante 0.
+            int initialPatrols = (costs.getRows() - i + islands - 1) / islands;
+            int islandPopulation = Math.max(initialPatrols, maxPopulation / islands);
+            Simulation island = new Simulation(maxSteps, islandPopulation, mu, rho, delta, costs, random.split(), storage,
+                    i, islands);
+            configure(island);
+            simulations.add(island);
+        }
+        Phaser migration = new Phaser(islands);
+
+        List<Callable<IslandObservations>> tasks = new ArrayList<>();
+        for (int i = 0; i < islands; i++) {
+            Simulation island = simulations.get(i);
+            ConcurrentLinkedQueue<Candidate> inbox = inboxes.get(i);
+            ConcurrentLinkedQueue<Candidate> neighbour = inboxes.get((i + 1) % islands);
+            tasks.add(() -> runIsland(tau, migrationInterval, island, inbox, neighbour, migration));
+        }
+
+        List<IslandObservations> results = new ArrayList<>();
+        // Uma thread por ilha: as ilhas esperam umas pelas outras em cada migração.
+        ExecutorService pool = Executors.newFixedThreadPool(islands);
+        try {
+            for (Future<IslandObservations> future : pool.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Island failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        // Os melhores candidatos de cada ilha já são arrays no heap, por isso a memória das ilhas pode ser libertada.
+        for (Simulation island : simulations) {
+            island.close();
+        }
+
+        StringBuilder text = new StringBuilder(256 * OBSERVATIONS);
+        for (int k = 0; k < OBSERVATIONS; k++) {
+            long events = 0, migrants = 0;
+            int population = 0, epidemics = 0;
+            Candidate best = null;
+            for (IslandObservations result : results) {
+                events += result.events[k];
+                population += result.population[k];
+                epidemics += result.epidemics[k];
+                migrants += result.migrants[k];
+                Candidate candidate = result.best[k];
+                if (candidate != null && (best == null || candidate.getComfort() > best.getComfort())) {
+                    best = candidate;
+                }
+            }
+            text.append("Observation ").append(k + 1).append(" (").append(islands).append(" islands):\n");
+            text.append("\t\tPresent instant:                   ").append(tau * (k + 1) / OBSERVATIONS).append('\n');
+            text.append("\t\tNumber of realized events:         ").append(events).append('\n');
+            text.append("\t\tPopulation size:                   ").append(population).append('\n');
+            text.append("\t\tNumber of epidemics:               ").append(epidemics).append('\n');
+            text.append("\t\tNumber of migrants:                ").append(migrants).append('\n');
+            text.append("\t\tBest distribution of the patrols:  ");
+            appendDistribution(text, best == null ? new int[0] : best.getSystems());
+            text.append('\n');
+            text.append("\t\tEmpire policing time:              ").append(best == null ? 0 : best.getPolicingTime()).append('\n');
+            text.append("\t\tComfort:                           ").append(best == null ? -1 : best.getComfort()).append('\n');
+        }
+        List<Simulation.StopReason> reasons = new ArrayList<>();
+        for (IslandObservations result : results) {
+            reasons.add(result.stopReason);
+        }
+        text.append("\t\tStop reasons:                      ").append(countStopReasons(reasons)).append('\n');
+        System.out.print(text);
+        System.out.flush();
+    }
+
+    /**
+     * Executa uma ilha até tau, trocando distribuições com as vizinhas em cada instante de migração.
+     * Todas as ilhas calculam os mesmos instantes de migração, pelo que chegam ao Phaser o mesmo número de vezes,
+     * mesmo as que já terminaram. Cada migração tem duas fases (envio e receção), para que cada ilha receba
+     * exatamente os migrantes da ronda em curso.
+     */
+    private static IslandObservations runIsland(double tau, double migrationInterval, Simulation island,
+                                                ConcurrentLinkedQueue<Candidate> inbox,
+                                                ConcurrentLinkedQueue<Candidate> neighbour, Phaser migration) {
+        IslandObservations observations = new IslandObservations();
+        long received = 0;
+        int round = 1;
+        try {
+            for (int k = 0; k < OBSERVATIONS; k++) {
+                double instant = tau * (k + 1) / OBSERVATIONS;
+                while (round * migrationInterval < instant) {
+                    island.runUntil(round * migrationInterval);
+                    List<Candidate> best = island.getCandidates();
+                    for (int i = 0; i < Math.min(MIGRANTS, best.size()); i++) {
+                        neighbour.offer(best.get(i));
+                    }
+                    // Depois desta barreira, todas as ilhas já enviaram os seus migrantes.
+                    migration.arriveAndAwaitAdvance();
+                    Candidate migrant;
+                    while ((migrant = inbox.poll()) != null) {
+                        if (island.immigrate(migrant)) {
+                            received++;
+                        }
+                    }
+                    // Só depois de todas terem recebido é que alguma pode enviar os migrantes da ronda seguinte.
+                    migration.arriveAndAwaitAdvance();
+                    round++;
+                }
+                island.runUntil(instant);
+                observations.events[k] = island.getEventCount();
+                observations.population[k] = island.getPopulationSize();
+                observations.epidemics[k] = island.getEpidemicCount();
+                observations.migrants[k] = received;
+                observations.best[k] = island.getBestCandidate();
+            }
+            observations.stopReason = island.getStopReason();
+        } finally {
+            // Deixa de contar para as migrações seguintes, mesmo em caso de erro, para não bloquear as outras ilhas.
+            migration.arriveAndDeregister();
+        }
+        return observations;
+    }
+
+    /**
+     * Observações de uma ilha, uma posição por instante de observação.
+     */
+    private static final class IslandObservations {
+        final long[] events = new long[OBSERVATIONS];
+        final int[] population = new int[OBSERVATIONS];
+        final int[] epidemics = new int[OBSERVATIONS];
+        final long[] migrants = new long[OBSERVATIONS];
+        final Candidate[] best = new Candidate[OBSERVATIONS];
+        Simulation.StopReason stopReason;
     }
 
     /**
@@ -66,7 +630,7 @@ public class SimulationManager {
      * Exibe resultados resumidos da simulação, como número de patrulhas ativas e o conforto médio.
      */
     private void displaySimulationResults() {
-        List<Patrol> activePatrols = simulation.getPatrols();
+        List<Patrol> activePatrols = mainSimulation().getPatrols();
         System.out.println("Número de patrulhas ativas ao final: " + activePatrols.size());
         System.out.println("Conforto médio das patrulhas ao final: " + calculateAverageComfort(activePatrols));
     }
@@ -87,7 +651,7 @@ public class SimulationManager {
 //        int numberOfSystems = 5000;   // Exemplo: número de sistemas planetários
 //
 //        // Cria uma instância do gerenciador de simulação com os parâmetros especificados.
-//        SimulationManager manager = new SimulationManager(maxSteps, maxPopulation, mu, rho, delta, numberOfPatrols, numberOfSystems);
+//        SimulationManager manager = new SimulationManager(maxSteps, maxPopulation, mu, rho, delta, costs);
 //
 //        // Inicia a simulação.
 //        manager.start();
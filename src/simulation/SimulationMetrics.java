@@ -0,0 +1,208 @@
+package simulation;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Contadores e histogramas do motor de eventos: eventos por tipo, latência de cada evento, tamanho da população,
+ * distribuição do conforto e memória alocada por evento.
+ * Os valores são acumulados em LongAdder, que reparte as escritas por células, pelo que a mesma instância pode
+ * ser partilhada por várias simulações (réplicas ou ilhas) em threads diferentes sem contenção.
+ * Uma simulação sem métricas associadas não chama nenhum destes métodos: o custo no ciclo de eventos
+ * reduz-se a uma comparação com null.
+ */
+public final class SimulationMetrics implements SimulationMetricsMBean {
+    private static final int BUCKETS = 64; // Histogramas em potências de 2.
+
+    // Contador de memória alocada pela thread atual, ou null se a JVM não o suportar.
+    private static final com.sun.management.ThreadMXBean THREADS = allocationCounter();
+
+    private final LongAdder[] eventsByType = { new LongAdder(), new LongAdder(), new LongAdder() };
+    private final LongAdder epidemics = new LongAdder();
+    private final LongAdder latencyTotal = new LongAdder();
+    private final LongAdder[] latencyBuckets = adders(BUCKETS);
+    private final LongAdder[] comfortBuckets = adders(BUCKETS);
+    private final LongAdder allocatedBytes = new LongAdder();
+    private final LongAccumulator maxPopulation = new LongAccumulator(Math::max, 0);
+    private final LongAdder population = new LongAdder(); // Soma das populações das simulações em curso.
+
+    private static LongAdder[] adders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean) threads;
+            if (counter.isThreadAllocatedMemorySupported() && counter.isThreadAllocatedMemoryEnabled()) {
+                return counter;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Memória alocada até agora pela thread atual, ou 0 se a JVM não a contabilizar.
+     */
+    static long threadAllocatedBytes() {
+        return THREADS == null ? 0 : THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * Regista um evento processado.
+     * @param type Tipo do evento (0 morte, 1 reprodução, 2 mutação).
+     * @param startNanos Valor de System.nanoTime() antes do evento.
+     * @param startBytes Valor de threadAllocatedBytes() antes do evento.
+     * @param populationSize População da simulação depois do evento.
+     * @param populationChange Variação da população da simulação desde o último valor que registou.
+     */
+    void recordEvent(int type, long startNanos, long startBytes, int populationSize, int populationChange) {
+        long latency = System.nanoTime() - startNanos;
+        eventsByType[type].increment();
+        latencyTotal.add(latency);
+        latencyBuckets[Math.min(64 - Long.numberOfLeadingZeros(Math.max(latency, 0)), BUCKETS - 1)].increment();
+        allocatedBytes.add(threadAllocatedBytes() - startBytes);
+        population.add(populationChange);
+        maxPopulation.accumulate(populationSize);
+    }
+
+    /**
+     * Retira da população total a última população registada por uma simulação que deixou de usar estas métricas.
+     */
+    void removePopulation(int populationSize) {
+        population.add(-populationSize);
+    }
+
+    /**
+     * Regista o conforto de uma patrulha alterada, no intervalo [2^-b, 2^-(b-1)) correspondente.
+     */
+    void recordComfort(double comfort) {
+        int bucket = comfort >= 1 ? 0 : comfort > 0 ? Math.min(-Math.getExponent(comfort), BUCKETS - 1) : BUCKETS - 1;
+        comfortBuckets[bucket].increment();
+    }
+
+    void recordEpidemic() {
+        epidemics.increment();
+    }
+
+    /**
+     * Regista estas métricas no servidor de MBeans da plataforma, com o nome indicado.
+     * @param name Nome que distingue esta instância (por exemplo, a execução a que pertence).
+     */
+    public void registerMBean(String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(this, new ObjectName("simulation:type=SimulationMetrics,name=" + ObjectName.quote(name)));
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not register metrics MBean " + name, e);
+        }
+    }
+
+    @Override
+    public long getDeaths() {
+        return eventsByType[Simulation.DEATH].sum();
+    }
+
+    @Override
+    public long getReproductions() {
+        return eventsByType[Simulation.REPRODUCTION].sum();
+    }
+
+    @Override
+    public long getMutations() {
+        return eventsByType[Simulation.MUTATION].sum();
+    }
+
+    @Override
+    public long getEpidemics() {
+        return epidemics.sum();
+    }
+
+    @Override
+    public long getEvents() {
+        return getDeaths() + getReproductions() + getMutations();
+    }
+
+    @Override
+    public double getMeanLatencyNanos() {
+        long events = getEvents();
+        return events == 0 ? 0 : (double) latencyTotal.sum() / events;
+    }
+
+    @Override
+    public long getLatencyP50Nanos() {
+        return latencyPercentile(0.5);
+    }
+
+    @Override
+    public long getLatencyP99Nanos() {
+        return latencyPercentile(0.99);
+    }
+
+    /**
+     * Limite superior do intervalo do histograma de latências onde cai o percentil indicado.
+     */
+    private long latencyPercentile(double fraction) {
+        long[] counts = snapshot(latencyBuckets);
+        long total = 0;
+        for (long count : counts) total += count;
+        if (total == 0) return 0;
+        long rank = (long) Math.ceil(fraction * total);
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += counts[b];
+            if (seen >= rank) {
+                return b == 0 ? 0 : b >= 63 ? Long.MAX_VALUE : 1L << b;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public long getPopulationSize() {
+        return population.sum();
+    }
+
+    @Override
+    public long getMaxPopulationSize() {
+        return maxPopulation.get();
+    }
+
+    @Override
+    public double getBytesPerEvent() {
+        long events = getEvents();
+        return events == 0 ? 0 : (double) allocatedBytes.sum() / events;
+    }
+
+    @Override
+    public long[] getComfortHistogram() {
+        return snapshot(comfortBuckets);
+    }
+
+    private static long[] snapshot(LongAdder[] adders) {
+        long[] values = new long[adders.length];
+        for (int i = 0; i < adders.length; i++) {
+            values[i] = adders[i].sum();
+        }
+        return values;
+    }
+
+    @Override
+    public void reset() {
+        for (LongAdder adder : eventsByType) adder.reset();
+        for (LongAdder adder : latencyBuckets) adder.reset();
+        for (LongAdder adder : comfortBuckets) adder.reset();
+        epidemics.reset();
+        latencyTotal.reset();
+        allocatedBytes.reset();
+        maxPopulation.reset();
+    }
+}
@@ -0,0 +1,45 @@
+package simulation;
+
+/**
+ * Interface de gestão (JMX) das métricas de uma simulação, exposta por SimulationMetrics.
+ */
+public interface SimulationMetricsMBean {
+    long getDeaths();
+
+    long getReproductions();
+
+    long getMutations();
+
+    long getEpidemics();
+
+    long getEvents();
+
+    double getMeanLatencyNanos();
+
+    long getLatencyP50Nanos();
+
+    long getLatencyP99Nanos();
+
+    /**
+     * Soma das populações das simulações em curso que partilham estas métricas (réplicas, ilhas ou execuções
+     * de um varrimento); uma simulação deixa de contar quando é fechada.
+     */
+    long getPopulationSize();
+
+    /**
+     * Maior população de uma única simulação.
+     */
+    long getMaxPopulationSize();
+
+    double getBytesPerEvent();
+
+    /**
+     * Histograma do conforto das patrulhas alteradas: a posição b conta os confortos em [2^-b, 2^-(b-1)).
+     */
+    long[] getComfortHistogram();
+
+    /**
+     * Volta a pôr os contadores a zero (a população atual não é um contador e mantém-se).
+     */
+    void reset();
+}
@@ -0,0 +1,155 @@
+package simulation;
+
+import config.SimulationConfig;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import random.Rng;
+
+/**
+ * Executa um varrimento de parâmetros: várias simulações, cada uma com a sua configuração, na mesma JVM.
+ * As configurações partilham a matriz C já lida, e as execuções correm num ForkJoinPool (com roubo de tarefas)
+ * limitado ao número de processadores. O resumo de cada execução é escrito assim que ela termina.
+ */
+public class SweepRunner {
+    private static final String HEADER = "run,mu,rho,delta,vmax,tau,instant,events,epidemics,population,"
+            + "bestComfort,bestPolicingTime,wallMillis,stopReason";
+
+    private final int maxSteps;
+    private final int parallelism;
+    private final Rng random;
+    private Simulation.Engine engine = Simulation.Engine.EVENT_QUEUE;
+    private double leapTolerance; // Controlo de erro do modo TAU_LEAPING, ou 0 para o valor por omissão.
+    private int mutationCandidates; // Candidatos da mutação guiada, ou 0 para a mutação aleatória.
+    private double convergenceThreshold = -1; // Deteção de convergência (threshold < 0 se estiver desligada).
+    private long convergenceEvents;
+    private double convergenceTime;
+    private Simulation.Storage storage = Simulation.Storage.HEAP;
+    private SimulationMetrics metrics; // Métricas partilhadas por todas as execuções, ou null.
+
+    /**
+     * @param maxSteps    Número máximo de eventos de cada simulação.
+     * @param parallelism Número máximo de execuções em simultâneo.
+     * @param random      Gerador de onde é derivado o gerador de cada execução, pela ordem das configurações.
+     */
+    public SweepRunner(int maxSteps, int parallelism, Rng random) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        }
+        this.maxSteps = maxSteps;
+        this.parallelism = parallelism;
+        this.random = random;
+    }
+
+    /**
+     * Escolhe o motor usado por todas as execuções do varrimento.
+     */
+    public void setEngine(Simulation.Engine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * Define o controlo de erro usado pelas execuções em modo TAU_LEAPING (ver Simulation.setLeapTolerance).
+     */
+    public void setLeapTolerance(double tolerance) {
+        this.leapTolerance = tolerance;
+    }
+
+    /**
+     * Liga a mutação guiada em todas as execuções (ver Simulation.setGuidedMutation).
+     */
+    public void setGuidedMutation(int candidates) {
+        this.mutationCandidates = candidates;
+    }
+
+    /**
+     * Liga a deteção de convergência em todas as execuções (ver Simulation.setConvergence), para que as
+     * execuções que deixaram de melhorar terminem e libertem a thread para as seguintes.
+     */
+    public void setConvergence(double threshold, long windowEvents, double windowTime) {
+        this.convergenceThreshold = threshold;
+        this.convergenceEvents = windowEvents;
+        this.convergenceTime = windowTime;
+    }
+
+    /**
+     * Liga a instrumentação em todas as execuções do varrimento, acumulada nas mesmas métricas.
+     */
+    public void setMetrics(SimulationMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Escolhe onde as execuções guardam as listas de sistemas (ver Simulation.Storage).
+     * Cada execução OFF_HEAP liberta a sua memória ao terminar.
+     */
+    public void setStorage(Simulation.Storage storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * Executa todas as configurações e escreve uma linha CSV por execução, pela ordem em que terminam.
+     * A coluna run indica a posição da configuração na lista.
+     * @param configs As configurações a executar.
+     * @param out Destino dos resumos; é esvaziado (flush) após cada linha.
+     * @throws IOException Se a escrita falhar.
+     */
+    public void run(List<SimulationConfig> configs, Writer out) throws IOException {
+        out.write(HEADER);
+        out.write('\n');
+        out.flush();
+
+        ForkJoinPool pool = new ForkJoinPool(Math.min(parallelism, configs.size()));
+        CompletionService<String> completed = new ExecutorCompletionService<>(pool);
+        try {
+            for (int i = 0; i < configs.size(); i++) {
+                int run = i;
+                SimulationConfig config = configs.get(i);
+                Rng runRandom = random.split(); // Derivado na thread principal, para não depender da ordem de execução.
+                completed.submit(() -> runOne(run, config, runRandom));
+            }
+            for (int i = 0; i < configs.size(); i++) {
+                out.write(completed.take().get());
+                out.write('\n');
+                out.flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Sweep run failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private String runOne(int run, SimulationConfig config, Rng runRandom) {
+        long start = System.nanoTime();
+        Simulation simulation = new Simulation(maxSteps, config.getMaxPopulation(), config.getDeathRate(),
+                config.getReproductionRate(), config.getMutationRate(), config.getCostMatrix(), runRandom, storage);
+        try {
+            simulation.setMetrics(metrics);
+            simulation.setEngine(engine);
+            if (leapTolerance > 0) {
+                simulation.setLeapTolerance(leapTolerance);
+            }
+            simulation.setGuidedMutation(mutationCandidates);
+            if (convergenceThreshold >= 0) {
+                simulation.setConvergence(convergenceThreshold, convergenceEvents, convergenceTime);
+            }
+            simulation.runUntil(config.getFinalTime());
+            long wallMillis = (System.nanoTime() - start) / 1_000_000;
+            return run + "," + config.getDeathRate() + "," + config.getReproductionRate() + "," + config.getMutationRate()
+                    + "," + config.getMaxPopulation() + "," + config.getFinalTime()
+                    + "," + simulation.getCurrentTime() + "," + simulation.getEventCount()
+                    + "," + simulation.getEpidemicCount() + "," + simulation.getPopulationSize()
+                    + "," + simulation.getBestComfort() + "," + simulation.getBestPolicingTime() + "," + wallMillis
+                    + "," + (simulation.getStopReason() == null ? "" : simulation.getStopReason());
+        } finally {
+            simulation.close();
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package simulation;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Armazenamento das listas de sistemas das patrulhas de uma execução. Por omissão as listas são arrays no heap;
+ * a alternativa fora do heap (OffHeapSystemStorage) guarda-as em memória nativa reservada para toda a execução,
+ * para instâncias em que milhões de sistemas por patrulha tornam as pausas do GC demasiado longas.
+ * As patrulhas acedem sempre através de Block, pelo que a lógica de Patrol é a mesma nos dois casos.
+ */
+abstract class SystemStorage implements AutoCloseable {
+    private static final SystemStorage HEAP = new HeapStorage();
+    // Compilada à parte (diretório incubator/), para que src/ se compile sem módulos de incubação.
+    private static final String OFF_HEAP_CLASS = "simulation.OffHeapSystemStorage";
+
+    /**
+     * Retorna o armazenamento pedido. Cada armazenamento fora do heap é próprio de uma execução e tem de ser
+     * fechado com close() quando a execução termina.
+     * @throws IllegalStateException Se OFF_HEAP for pedido sem a classe de incubator/ ou sem o módulo
+     *                               jdk.incubator.foreign carregado.
+     */
+    static SystemStorage create(Simulation.Storage type) {
+        if (type == Simulation.Storage.HEAP) {
+            return HEAP;
+        }
+        if (!isAvailable(type)) {
+            throw new IllegalStateException("Off-heap storage requires the classes in incubator/ and java --add-modules jdk.incubator.foreign");
+        }
+        try {
+            // Carregada por reflexão: sem o módulo, a classe nem chega a ser resolvida.
+            return (SystemStorage) Class.forName(OFF_HEAP_CLASS).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            throw new IllegalStateException("Off-heap storage is not available", e);
+        }
+    }
+
+    /**
+     * Indica se o armazenamento pedido pode ser usado nesta JVM.
+     */
+    static boolean isAvailable(Simulation.Storage type) {
+        if (type == Simulation.Storage.HEAP) {
+            return true;
+        }
+        if (!ModuleLayer.boot().findModule("jdk.incubator.foreign").isPresent()) {
+            return false;
+        }
+        try {
+            Class.forName(OFF_HEAP_CLASS, false, SystemStorage.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    abstract Simulation.Storage getType();
+
+    /**
+     * Reserva um bloco com pelo menos capacity posições.
+     */
+    abstract Block allocate(int capacity);
+
+    /**
+     * Devolve um bloco que deixou de ser usado, para ser reaproveitado por allocate().
+     */
+    abstract void release(Block block);
+
+    /**
+     * Entrega um bloco largado enquanto um instantâneo o partilhava: só é reaproveitado depois de
+     * releaseRetired(), quando o instantâneo já foi escrito. No heap não há nada a fazer, já que o GC
+     * só recolhe o array quando o instantâneo deixar de o usar.
+     */
+    void retire(Block block) {
+    }
+
+    /**
+     * Devolve a allocate() os blocos entregues a retire(). Só pode ser chamado quando nenhum instantâneo
+     * estiver a ser escrito.
+     */
+    void releaseRetired() {
+    }
+
+    /**
+     * Bloco no heap sobre um array já existente (usado ao ler instantâneos).
+     */
+    static Block wrap(int[] systems) {
+        return new HeapBlock(systems);
+    }
+
+    /**
+     * Liberta toda a memória do armazenamento. Os blocos deixam de poder ser usados.
+     */
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Lista de identificadores de sistemas com capacidade fixa.
+     */
+    abstract static class Block {
+        abstract int capacity();
+
+        abstract int get(int index);
+
+        abstract void set(int index, int system);
+
+        /**
+         * Copia length posições de source (a partir de sourceIndex) para este bloco (a partir de index).
+         */
+        abstract void copyFrom(Block source, int sourceIndex, int index, int length);
+
+        /**
+         * Escreve length posições a partir de index em target, pela ordem de bytes de target, avançando a sua
+         * posição. O target tem de ter espaço para todas.
+         */
+        abstract void writeTo(ByteBuffer target, int index, int length);
+
+        /**
+         * Retorna o array que guarda este bloco, se estiver no heap e puder ser partilhado, ou null.
+         */
+        abstract int[] array();
+
+        /**
+         * Copia as primeiras size posições para um array novo.
+         */
+        int[] toArray(int size) {
+            int[] copy = new int[size];
+            for (int i = 0; i < size; i++) {
+                copy[i] = get(i);
+            }
+            return copy;
+        }
+    }
+
+    /**
+     * Armazenamento no heap: cada bloco é um array, recolhido pelo GC quando deixa de ser usado.
+     */
+    private static final class HeapStorage extends SystemStorage {
+        @Override
+        Simulation.Storage getType() {
+            return Simulation.Storage.HEAP;
+        }
+
+        @Override
+        Block allocate(int capacity) {
+            return new HeapBlock(new int[capacity]);
+        }
+
+        @Override
+        void release(Block block) {
+        }
+    }
+
+    private static final class HeapBlock extends Block {
+        private final int[] systems;
+
+        HeapBlock(int[] systems) {
+            this.systems = systems;
+        }
+
+        @Override
+        int capacity() {
+            return systems.length;
+        }
+
+        @Override
+        int get(int index) {
+            return systems[index];
+        }
+
+        @Override
+        void set(int index, int system) {
+            systems[index] = system;
+        }
+
+        @Override
+        void copyFrom(Block source, int sourceIndex, int index, int length) {
+            int[] array = source.array();
+            if (array != null) {
+                System.arraycopy(array, sourceIndex, systems, index, length);
+            } else {
+                for (int i = 0; i < length; i++) {
+                    systems[index + i] = source.get(sourceIndex + i);
+                }
+            }
+        }
+
+        @Override
+        void writeTo(ByteBuffer target, int index, int length) {
+            target.asIntBuffer().put(systems, index, length);
+            target.position(target.position() + length * Integer.BYTES);
+        }
+
+        @Override
+        int[] array() {
+            return systems;
+        }
+
+        @Override
+        int[] toArray(int size) {
+            return Arrays.copyOf(systems, size);
+        }
+    }
+}